@@ -0,0 +1,94 @@
+package com.spring.benchmark;
+
+import com.spring.repository.entity.Test;
+import com.spring.util.ExcelExportPlan;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 基准数据生成-按导出计划为每个Excel字段填充对应类型的合成数据
+ *
+ * @author Zhendong Zhou
+ */
+public final class BenchmarkData {
+    private static final long BASE_TIME = 1577808000000L;
+    private static final LocalDateTime BASE_DATE_TIME = LocalDateTime.of(2020, 1, 1, 0, 0);
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * 按形态选择实体类: narrow(3列,即Test) mixed(12列混合类型) wide(36列)
+     */
+    public static Class<?> type(String shape) {
+        switch (shape) {
+            case "narrow":
+                return Test.class;
+            case "mixed":
+                return MixedRow.class;
+            case "wide":
+                return WideRow.class;
+            default:
+                throw new IllegalArgumentException(shape);
+        }
+    }
+
+    /**
+     * 生成数据
+     *
+     * @param clazz 实体类
+     * @param count 条数
+     * @param mergeRatio 基准列每组的行数,1代表不合并
+     */
+    public static <T> List<T> rows(Class<T> clazz, int count, int mergeRatio) {
+        ExcelExportPlan plan = ExcelExportPlan.of(clazz);
+        List<T> rows = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                T row = clazz.newInstance();
+                for (ExcelExportPlan.Column column : plan.getColumns()) {
+                    Field field = column.getField();
+                    if (column.getAttr().datum()) {
+                        field.set(row, "K" + (i / mergeRatio));
+                    } else {
+                        field.set(row, value(field.getType(), i));
+                    }
+                }
+                rows.add(row);
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+        return rows;
+    }
+
+    private static Object value(Class<?> type, int i) {
+        if (type == String.class) {
+            return "value-" + i;
+        }
+        if (type == int.class || type == Integer.class) {
+            return i;
+        }
+        if (type == long.class || type == Long.class) {
+            return i * 31L;
+        }
+        if (type == double.class || type == Double.class) {
+            return i * 0.25;
+        }
+        if (type == BigDecimal.class) {
+            return BigDecimal.valueOf(i * 1001L, 2);
+        }
+        if (type == Date.class) {
+            return new Date(BASE_TIME + i * 1000L);
+        }
+        if (type == LocalDateTime.class) {
+            return BASE_DATE_TIME.plusSeconds(i);
+        }
+        return null;
+    }
+}
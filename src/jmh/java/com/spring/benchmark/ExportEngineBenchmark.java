@@ -0,0 +1,79 @@
+package com.spring.benchmark;
+
+import com.spring.util.ExcelExportPlan;
+import com.spring.util.ExcelExportUtils;
+import com.spring.util.RowBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 导出引擎基准-单个工作表的单元格格式化与写入,单位为行/秒
+ * <p>
+ * mergeRatio大于1时基准列每组包含对应行数,同时覆盖按行合并的写入路径
+ *
+ * @author Zhendong Zhou
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgs = {"-Xms1g", "-Xmx1g"})
+public class ExportEngineBenchmark {
+    static final int ROWS = 20000;
+
+    @Param({"narrow", "mixed", "wide"})
+    private String shape;
+    @Param({"1", "4"})
+    private int mergeRatio;
+    @Param({"500"})
+    private int rowWindow;
+
+    private Class<Object> clazz;
+    private List<Object> rows;
+    private ExcelExportPlan plan;
+    private String dir;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() throws IOException {
+        clazz = (Class<Object>) BenchmarkData.type(shape);
+        rows = BenchmarkData.rows(clazz, ROWS, mergeRatio);
+        plan = ExcelExportPlan.of(clazz);
+        dir = Files.createTempDirectory("export-bench").toString() + File.separator;
+        HeapPeak.reset();
+    }
+
+    @TearDown(Level.Iteration)
+    public void peak() {
+        HeapPeak.report(shape + "/" + mergeRatio);
+    }
+
+    /**
+     * 仅取值与格式化
+     */
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public RowBuffer prepare() {
+        return RowBuffer.of(plan, rows);
+    }
+
+    /**
+     * 取值格式化、写入工作表并生成文件
+     */
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long paged() {
+        ExcelExportUtils<Object> exportUtil = new ExcelExportUtils<>(clazz, dir, "bench", rowWindow);
+        exportUtil.build(rows, exportUtil.buildSheet(0));
+        File file = new File(dir + exportUtil.make());
+        long length = file.length();
+        file.delete();
+        return length;
+    }
+}
@@ -0,0 +1,178 @@
+package com.spring.benchmark;
+
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.spring.facade.ExportCheckpointStore;
+import com.spring.facade.ExportFacade;
+import com.spring.facade.ExportJob;
+import com.spring.facade.ExportMetrics;
+import com.spring.facade.ExportResultCache;
+import com.spring.facade.ExportScheduler;
+import com.spring.util.ExcelExportUtils;
+import com.spring.util.ExportFormat;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.ibatis.cursor.Cursor;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 导出门面基准-分页与游标两种模式的端到端导出,单位为行/秒
+ * <p>
+ * 数据库与Redis均以本地替身代替;导出目录经由-Dexport.dir指向target下的独立目录,文件生成后删除,结束时删除整个目录
+ *
+ * @author Zhendong Zhou
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 20)
+@Fork(value = 1, jvmArgs = {"-Xms1g", "-Xmx1g", "-Dexport.dir=" + ExportFacadeBenchmark.DIR})
+public class ExportFacadeBenchmark {
+    static final int ROWS = 100000;
+    static final int PAGES = 4;
+    static final String DIR = "target/export-bench/";
+
+    @Param({"narrow", "mixed"})
+    private String shape;
+    @Param({"1", "4"})
+    private int mergeRatio;
+    @Param({"XLSX", "XLSX_STREAM", "CSV"})
+    private ExportFormat format;
+
+    private Class<Object> clazz;
+    private List<Object> rows;
+    private ThreadPoolTaskExecutor pool;
+    private ExportFacade facade;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        if (!DIR.equals(ExcelExportUtils.PUBLIC_EXPORT_DIR)) {
+            // 未分叉运行时不能写入正式的导出目录
+            throw new IllegalStateException("导出目录未指向基准目录:" + ExcelExportUtils.PUBLIC_EXPORT_DIR);
+        }
+        clazz = (Class<Object>) BenchmarkData.type(shape);
+        rows = BenchmarkData.rows(clazz, ROWS, mergeRatio);
+        pool = new ThreadPoolTaskExecutor();
+        pool.setCorePoolSize(Runtime.getRuntime().availableProcessors());
+        pool.initialize();
+        ExportScheduler scheduler = new ExportScheduler(pool);
+        ExportResultCache cache = new ExportResultCache();
+        LocalRedisTemplate redis = new LocalRedisTemplate();
+        facade = new ExportFacade(redis, new NoopTransactionManager(), scheduler, cache,
+                new ExportMetrics(new SimpleMeterRegistry(), scheduler, cache), new ExportCheckpointStore(redis));
+        HeapPeak.reset();
+    }
+
+    @TearDown(Level.Iteration)
+    public void peak() {
+        HeapPeak.report(shape + "/" + mergeRatio + "/" + format);
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() throws IOException {
+        pool.shutdown();
+        Path dir = Paths.get(DIR);
+        if (Files.exists(dir)) {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long paged() throws Exception {
+        int size = ROWS / PAGES;
+        return this.export(ExportJob.of("bench", clazz, 0L).format(format).pages(PAGES).size(size).dataProvider(page -> {
+            int from = (int) ((page.getCurrent() - 1) * page.getSize());
+            return new Page<Object>().setRecords(rows.subList(from, Math.min(rows.size(), from + (int) page.getSize())));
+        }).build());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long cursor() throws Exception {
+        return this.export(ExportJob.of("bench", clazz, 0L).format(format).size(ROWS / PAGES)
+                .cursorProvider(() -> new ListCursor(rows)).build());
+    }
+
+    private long export(ExportJob<Object> job) throws Exception {
+        String fileName = facade.submit(job).getFuture().get();
+        File file = new File(ExcelExportUtils.PUBLIC_EXPORT_DIR + fileName);
+        long length = file.length();
+        file.delete();
+        return length;
+    }
+
+    /**
+     * 数据库游标替身
+     */
+    static class ListCursor implements Cursor<Object> {
+        private final List<Object> rows;
+
+        ListCursor(List<Object> rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public boolean isConsumed() {
+            return false;
+        }
+
+        @Override
+        public int getCurrentIndex() {
+            return -1;
+        }
+
+        @Override
+        public Iterator<Object> iterator() {
+            return rows.iterator();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * 事务管理器替身
+     */
+    static class NoopTransactionManager extends AbstractPlatformTransactionManager {
+        @Override
+        protected Object doGetTransaction() {
+            return new Object();
+        }
+
+        @Override
+        protected void doBegin(Object transaction, TransactionDefinition definition) {
+        }
+
+        @Override
+        protected void doCommit(DefaultTransactionStatus status) {
+        }
+
+        @Override
+        protected void doRollback(DefaultTransactionStatus status) {
+        }
+    }
+}
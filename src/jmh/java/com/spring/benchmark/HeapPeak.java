@@ -0,0 +1,34 @@
+package com.spring.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * 堆内存峰值统计-按迭代重置并输出各堆内存池峰值之和
+ *
+ * @author Zhendong Zhou
+ */
+final class HeapPeak {
+    private HeapPeak() {
+    }
+
+    static void reset() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    static void report(String name) {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.out.printf("%n[%s] peak heap: %.1f MB%n", name, peak / 1024.0 / 1024.0);
+        reset();
+    }
+}
@@ -0,0 +1,115 @@
+package com.spring.benchmark;
+
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 本地Redis替身-只实现导出任务进度用到的hash命令与进度脚本,进度发布没有订阅者,用于离线运行基准
+ *
+ * @author Zhendong Zhou
+ */
+public class LocalRedisTemplate extends RedisTemplate<String, Object> {
+    private final Map<String, Map<String, String>> hashes = new HashMap<>();
+    private final RedisConnection connection = (RedisConnection) Proxy.newProxyInstance(
+            RedisConnection.class.getClassLoader(), new Class[]{RedisConnection.class},
+            (proxy, method, args) -> this.invoke(method.getName(), args));
+
+    @Override
+    public <T> T execute(RedisCallback<T> action) {
+        return action.doInRedis(connection);
+    }
+
+    @Override
+    public List<Object> executePipelined(RedisCallback<?> action) {
+        action.doInRedis(connection);
+        return Collections.emptyList();
+    }
+
+    private synchronized Object invoke(String command, Object[] args) {
+        switch (command) {
+            case "hSet":
+                hashes.computeIfAbsent(string(args[0]), k -> new HashMap<>()).put(string(args[1]), string(args[2]));
+                return true;
+            case "hGet":
+                return bytes(hash(args[0]).get(string(args[1])));
+            case "hGetAll":
+                Map<byte[], byte[]> entries = new LinkedHashMap<>();
+                hash(args[0]).forEach((k, v) -> entries.put(bytes(k), bytes(v)));
+                return entries;
+            case "hExists":
+                return hash(args[0]).containsKey(string(args[1]));
+            case "hDel":
+                return hash(args[0]).remove(string(((Object[]) args[1])[0])) == null ? 0L : 1L;
+            case "eval":
+                byte[][] keysAndArgs = (byte[][]) args[3];
+                return keysAndArgs.length == 6 ? resize(keysAndArgs) : schedule(keysAndArgs);
+            case "expire":
+                return true;
+            case "publish":
+                return 0L;
+            case "isPipelined":
+                return false;
+            case "close":
+                return null;
+            default:
+                throw new UnsupportedOperationException(command);
+        }
+    }
+
+    /**
+     * 对应ExcelTaskUtil的进度脚本
+     */
+    private long schedule(byte[][] keysAndArgs) {
+        Map<String, String> hash = hash(keysAndArgs[0]);
+        String field = string(keysAndArgs[2]);
+        String value = hash.get(field);
+        if (value == null) {
+            return -1;
+        }
+        int step = Integer.parseInt(string(keysAndArgs[5]));
+        int i = value.indexOf('/');
+        int current = Integer.parseInt(value.substring(0, i)) + step;
+        int count = Integer.parseInt(value.substring(i + 1));
+        hash.put(field, current + "/" + count);
+        Map<String, String> rows = hashes.computeIfAbsent(string(keysAndArgs[1]), k -> new HashMap<>());
+        rows.merge(field, string(keysAndArgs[6]), (a, b) -> String.valueOf(Long.parseLong(a) + Long.parseLong(b)));
+        return step > 0 && current == count ? 1 : 0;
+    }
+
+    /**
+     * 对应ExcelTaskUtil的改写总数脚本
+     */
+    private long resize(byte[][] keysAndArgs) {
+        Map<String, String> hash = hash(keysAndArgs[0]);
+        String field = string(keysAndArgs[2]);
+        String value = hash.get(field);
+        if (value == null) {
+            return -1;
+        }
+        int current = Integer.parseInt(value.substring(0, value.indexOf('/')));
+        int count = Integer.parseInt(string(keysAndArgs[5]));
+        hash.put(field, current + "/" + count);
+        return current == count ? 1 : 0;
+    }
+
+    private Map<String, String> hash(Object key) {
+        return hashes.getOrDefault(string(key), Collections.emptyMap());
+    }
+
+    private static String string(Object bytes) {
+        return new String((byte[]) bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,42 @@
+package com.spring.benchmark;
+
+import com.spring.annotation.Excel;
+import lombok.Data;
+import org.apache.poi.ss.usermodel.CellType;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Date;
+
+/**
+ * 基准数据-混合类型的12列实体
+ *
+ * @author Zhendong Zhou
+ */
+@Data
+public class MixedRow {
+    @Excel(name = "编码", datum = true)
+    private String code;
+    @Excel(name = "名称")
+    private String name;
+    @Excel(name = "金额", isDecimalFormat = true)
+    private BigDecimal amount;
+    @Excel(name = "单价", cellType = CellType.NUMERIC)
+    private double price;
+    @Excel(name = "数量", cellType = CellType.NUMERIC)
+    private int quantity;
+    @Excel(name = "合计", isDecimalFormat = true)
+    private long total;
+    @Excel(name = "比例", suffix = "%")
+    private Double ratio;
+    @Excel(name = "创建时间")
+    private Date created;
+    @Excel(name = "更新时间", mergeRow = true)
+    private LocalDateTime updated;
+    @Excel(name = "备注", defaultValue = "-")
+    private String remark;
+    @Excel(name = "状态", cellType = CellType.NUMERIC)
+    private Integer status;
+    @Excel(name = "分组", mergeRow = true)
+    private String grouping;
+}
@@ -0,0 +1,89 @@
+package com.spring.benchmark;
+
+import com.spring.annotation.Excel;
+import lombok.Data;
+import org.apache.poi.ss.usermodel.CellType;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * 基准数据-36列的宽表实体
+ *
+ * @author Zhendong Zhou
+ */
+@Data
+public class WideRow {
+    @Excel(name = "c0", datum = true)
+    private String c0;
+    @Excel(name = "c1", mergeRow = true)
+    private String c1;
+    @Excel(name = "c2", isDecimalFormat = true)
+    private BigDecimal c2;
+    @Excel(name = "c3")
+    private Date c3;
+    @Excel(name = "c4")
+    private String c4;
+    @Excel(name = "c5", cellType = CellType.NUMERIC)
+    private long c5;
+    @Excel(name = "c6", isDecimalFormat = true)
+    private BigDecimal c6;
+    @Excel(name = "c7")
+    private Date c7;
+    @Excel(name = "c8")
+    private String c8;
+    @Excel(name = "c9", cellType = CellType.NUMERIC)
+    private long c9;
+    @Excel(name = "c10", isDecimalFormat = true)
+    private BigDecimal c10;
+    @Excel(name = "c11")
+    private Date c11;
+    @Excel(name = "c12")
+    private String c12;
+    @Excel(name = "c13", cellType = CellType.NUMERIC)
+    private long c13;
+    @Excel(name = "c14", isDecimalFormat = true)
+    private BigDecimal c14;
+    @Excel(name = "c15")
+    private Date c15;
+    @Excel(name = "c16")
+    private String c16;
+    @Excel(name = "c17", cellType = CellType.NUMERIC)
+    private long c17;
+    @Excel(name = "c18", isDecimalFormat = true)
+    private BigDecimal c18;
+    @Excel(name = "c19")
+    private Date c19;
+    @Excel(name = "c20")
+    private String c20;
+    @Excel(name = "c21", cellType = CellType.NUMERIC)
+    private long c21;
+    @Excel(name = "c22", isDecimalFormat = true)
+    private BigDecimal c22;
+    @Excel(name = "c23")
+    private Date c23;
+    @Excel(name = "c24")
+    private String c24;
+    @Excel(name = "c25", cellType = CellType.NUMERIC)
+    private long c25;
+    @Excel(name = "c26", isDecimalFormat = true)
+    private BigDecimal c26;
+    @Excel(name = "c27")
+    private Date c27;
+    @Excel(name = "c28")
+    private String c28;
+    @Excel(name = "c29", cellType = CellType.NUMERIC)
+    private long c29;
+    @Excel(name = "c30", isDecimalFormat = true)
+    private BigDecimal c30;
+    @Excel(name = "c31")
+    private Date c31;
+    @Excel(name = "c32")
+    private String c32;
+    @Excel(name = "c33", cellType = CellType.NUMERIC)
+    private long c33;
+    @Excel(name = "c34", isDecimalFormat = true)
+    private BigDecimal c34;
+    @Excel(name = "c35")
+    private Date c35;
+}
@@ -1,20 +1,35 @@
 package com.spring.controller;
 
+import com.spring.facade.ExportJanitor;
+import com.spring.facade.ExportProgress;
+import com.spring.facade.ExportScheduler;
 import com.spring.service.TestService;
 import com.spring.util.ExcelExportUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -27,17 +42,54 @@ import java.util.Map;
 public class TestController {
     @Autowired
     public TestController(TestService service,
-                          RedisTemplate redisTemplate) {
+                          RedisTemplate<String, Object> redisTemplate,
+                          ExportScheduler exportScheduler,
+                          ExportJanitor exportJanitor,
+                          ExportProgress exportProgress) {
         this.service = service;
         this.redisTemplate = redisTemplate;
+        this.exportScheduler = exportScheduler;
+        this.exportJanitor = exportJanitor;
+        this.exportProgress = exportProgress;
     }
     private final TestService service;
     private final RedisTemplate<String, Object> redisTemplate;
+    private final ExportScheduler exportScheduler;
+    private final ExportJanitor exportJanitor;
+    private final ExportProgress exportProgress;
 
-    // 待办的任务列表
+    // Tomcat sendfile 请求属性
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    // 待办的任务列表(轮询方式,优先使用task-events)
     @GetMapping(value = "task-list")
     public Map<Object, Object> task() {
-        return ExcelExportUtils.ExcelTaskUtil.getExportTask(redisTemplate, 1L);
+        return exportProgress.tasks(1L);
+    }
+
+    // 任务进度推送
+    @GetMapping(value = "task-events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter taskEvents() {
+        return exportProgress.subscribe(1L);
+    }
+
+    // 导出调度统计
+    @GetMapping(value = "scheduler")
+    public Map<String, Object> scheduler() {
+        return exportScheduler.stats();
+    }
+
+    // 导入文件
+    @PostMapping(value = "import")
+    public String importExcel(@RequestParam("file") MultipartFile file) {
+        try {
+            return service.importExcel(file);
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage());
+        }
     }
 
     // 下载文件
@@ -47,7 +99,8 @@ public class TestController {
             throw new RuntimeException("任务已过期");
         }
         String filePath = ExcelExportUtils.PUBLIC_EXPORT_DIR + filename;
-        if (!new File(filePath).exists()) {
+        File file = new File(filePath);
+        if (!file.exists()) {
             ExcelExportUtils.ExcelTaskUtil.removeCache(redisTemplate, filename, 1L);
             throw new RuntimeException("文件已被清理");
         }
@@ -55,8 +108,9 @@ public class TestController {
             response.setHeader("requestType","file");
             response.setHeader("Access-Control-Expose-Headers","requestType");
             String filePrefixName = getFilePrefixName(filename);
-            compatibleFileName(request, response, filePrefixName);
-            writeBytes(filePath, response.getOutputStream());
+            compatibleFileName(request, response, filePrefixName, filename.substring(filePrefixName.length()));
+            writeFile(file, request, response);
+            exportJanitor.touch(file);
         } catch (IOException e) {
             throw new RuntimeException(e.getMessage());
         }
@@ -70,49 +124,106 @@ public class TestController {
         return name[0];
     }
 
-    private static void compatibleFileName(HttpServletRequest request, HttpServletResponse response, String excelName)
-            throws UnsupportedEncodingException {
+    private static void compatibleFileName(HttpServletRequest request, HttpServletResponse response, String excelName,
+                                           String suffix) throws UnsupportedEncodingException {
         String agent = request.getHeader("USER-AGENT").toLowerCase();
-        response.setContentType("application/vnd.ms-excel");
+        if (suffix.endsWith(".gz")) {
+            response.setContentType("application/gzip");
+        } else if (suffix.endsWith(".csv")) {
+            response.setContentType("text/csv");
+        } else {
+            response.setContentType("application/vnd.ms-excel");
+        }
         String codedFileName = java.net.URLEncoder.encode(excelName, StandardCharsets.UTF_8.name());
         if (agent.contains("firefox") || agent.contains("safari")) {
             response.setCharacterEncoding(StandardCharsets.UTF_8.name());
-            response.setHeader("content-disposition", "attachment;filename=" + new String(excelName.getBytes(), "ISO8859-1") + ".xlsx");
+            response.setHeader("content-disposition", "attachment;filename=" + new String(excelName.getBytes(), "ISO8859-1") + suffix);
         } else {
-            response.setHeader("content-disposition", "attachment;filename=" + codedFileName + ".xlsx");
+            response.setHeader("content-disposition", "attachment;filename=" + codedFileName + suffix);
         }
     }
 
-    private static void writeBytes(String filePath, OutputStream os) throws IOException {
-        FileInputStream fis = null;
-        try {
-            File file = new File(filePath);
-            if (!file.exists()) {
-                throw new FileNotFoundException(filePath);
-            }
-            fis = new FileInputStream(file);
-            byte[] b = new byte[1024];
-            int length;
-            while ((length = fis.read(b)) > 0) {
-                os.write(b, 0, length);
+    /**
+     * 输出文件-支持断点续传(Range/If-Range);容器支持sendfile时零拷贝发送,
+     * 否则经由Servlet输出流复制(transferTo的目标不是套接字通道,会先读入堆内缓冲区,不是零拷贝)
+     */
+    private static void writeFile(File file, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long length = file.length();
+        long lastModified = file.lastModified();
+        String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+
+        long start = 0;
+        long end = length - 1;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (range != null && isRangeValid(request, etag, lastModified)) {
+            List<HttpRange> ranges;
+            try {
+                ranges = HttpRange.parseRanges(range);
+            } catch (IllegalArgumentException e) {
+                ranges = Collections.emptyList();
             }
-        } catch (IOException e) {
-            throw e;
-        } finally {
-            if (os != null) {
+            // 多段请求按完整文件返回
+            if (ranges.size() == 1) {
+                HttpRange httpRange = ranges.get(0);
                 try {
-                    os.close();
-                } catch (IOException e1) {
-                    e1.printStackTrace();
+                    start = httpRange.getRangeStart(length);
+                    end = httpRange.getRangeEnd(length);
+                } catch (IllegalArgumentException e) {
+                    start = length;
+                }
+                if (start >= length || start > end) {
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                    response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
                 }
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
             }
-            if (fis != null) {
-                try {
-                    fis.close();
-                } catch (IOException e1) {
-                    e1.printStackTrace();
+        }
+        long count = end - start + 1;
+        response.setContentLengthLong(count);
+
+        // 容器支持sendfile时交由容器在请求结束后直接从文件发送
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+            return;
+        }
+        // 后备路径:按块复制到输出流
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            while (count > 0) {
+                long written = channel.transferTo(position, count, out);
+                if (written <= 0) {
+                    break;
                 }
+                position += written;
+                count -= written;
             }
         }
     }
+
+    /**
+     * If-Range与当前文件一致时才按Range返回片段,否则返回完整文件
+     */
+    private static boolean isRangeValid(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return etag.equals(ifRange);
+        }
+        try {
+            // HTTP日期只精确到秒
+            return request.getDateHeader(HttpHeaders.IF_RANGE) / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
 }
@@ -0,0 +1,402 @@
+package com.spring.facade;
+
+import com.alibaba.fastjson.JSON;
+import com.spring.util.ExcelExportUtils;
+import com.spring.util.ExportFormat;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 导出检查点存储-可续传导出的任务信息与已结束的工作表,持久化在导出目录的.checkpoint子目录中
+ * <p>
+ * 每个检查点记录所属实例，实例以Redis中带过期时间的KEY表明存活；所属实例失去存活标记后，
+ * 其他实例(或重启后的同一节点)经由Redis抢占该检查点并续传，多个实例共用导出目录时同一个导出只会被一个实例续传
+ * <p>
+ * 存活标记在专属线程中续期，不受其他定时任务阻塞的影响；续期时发现标记已过期(期间可能已被其他实例抢占)则更换实例标识，
+ * 检查点的所属实例以Redis中的KEY为准(抢占为比较并设置)，导出在登记工作表与生成文件前校验所有权({@link #owns(Checkpoint)})，
+ * 失去所有权后不再写入
+ *
+ * @author Zhendong Zhou
+ */
+@Slf4j
+@Component
+public class ExportCheckpointStore implements InitializingBean, DisposableBean {
+    private static final String DIR = ExcelExportUtils.PUBLIC_EXPORT_DIR + ".checkpoint/";
+    private static final String SUFFIX = ".json";
+    private static final String INSTANCE_PREFIX = "user:export:instance:";
+    private static final String OWNER_PREFIX = "user:export:resume:";
+    private static final RedisSerializer<String> STRING = RedisSerializer.string();
+    /**
+     * 所属实例仍为ARGV[1](空串表示无所属实例)时改为ARGV[2],返回1;否则返回0
+     */
+    private static final byte[] CLAIM_SCRIPT = STRING.serialize(
+            "local v = redis.call('GET', KEYS[1]) " +
+            "if (not v and ARGV[1] == '') or v == ARGV[1] then " +
+            "redis.call('SET', KEYS[1], ARGV[2], 'EX', ARGV[3]) return 1 end " +
+            "return 0");
+    /**
+     * 所属实例为ARGV[1]时删除,用于释放与删除检查点
+     */
+    private static final byte[] RELEASE_SCRIPT = STRING.serialize(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end " +
+            "return 0");
+
+    private final RedisTemplate<String, Object> redisService;
+    /**
+     * 本实例的标识,每次启动与存活标记过期后重新生成
+     */
+    private volatile String instance = UUID.randomUUID().toString();
+    private ScheduledExecutorService lease;
+
+    @Value("${export.checkpoint.lease-seconds:60}")
+    private long leaseSeconds = 60; // 实例存活标记的有效期,超过后其检查点可被抢占
+    @Value("${export.checkpoint.max-age-seconds:86500}")
+    private long maxAgeSeconds = 86500; // 超过该时长的检查点不再续传
+    @Value("${export.checkpoint.heartbeat-ms:20000}")
+    private long heartbeatMillis = 20000; // 存活标记的续期间隔,需小于有效期
+
+    @Autowired
+    public ExportCheckpointStore(RedisTemplate<String, Object> redisService) {
+        this.redisService = redisService;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        this.mark();
+        lease = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "export-checkpoint-lease");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lease.scheduleWithFixedDelay(this::heartbeat, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (lease != null) {
+            lease.shutdownNow();
+        }
+    }
+
+    /**
+     * 续期本实例的存活标记;标记已过期时更换实例标识,原标识下的检查点视为已失去所有权
+     */
+    void heartbeat() {
+        byte[] key = STRING.serialize(INSTANCE_PREFIX + instance);
+        try {
+            Boolean renewed = redisService.execute((RedisCallback<Boolean>) connection -> connection.set(key, STRING.serialize("1"),
+                    Expiration.seconds(leaseSeconds), RedisStringCommands.SetOption.SET_IF_PRESENT));
+            if (!Boolean.TRUE.equals(renewed)) {
+                log.warn("导出实例存活标记已过期,更换实例标识:{}", instance);
+                instance = UUID.randomUUID().toString();
+                this.mark();
+            }
+        } catch (RuntimeException e) {
+            log.warn("导出实例存活标记续期失败:{}", e.getMessage());
+        }
+    }
+
+    private void mark() {
+        byte[] key = STRING.serialize(INSTANCE_PREFIX + instance);
+        try {
+            redisService.execute((RedisCallback<Boolean>) connection -> connection.setEx(key, leaseSeconds, STRING.serialize("1")));
+        } catch (RuntimeException e) {
+            log.warn("导出实例存活标记写入失败:{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 本实例是否仍持有检查点:实例标识未更换,且Redis中的所属实例仍为本实例
+     */
+    public boolean owns(Checkpoint checkpoint) {
+        String owner = instance;
+        if (!owner.equals(checkpoint.getOwner())) {
+            return false;
+        }
+        byte[] key = STRING.serialize(OWNER_PREFIX + checkpoint.getFileName());
+        try {
+            byte[] value = redisService.execute((RedisCallback<byte[]>) connection -> connection.get(key));
+            return value != null && owner.equals(STRING.deserialize(value));
+        } catch (RuntimeException e) {
+            // 无法确认时视为已失去,由续传重新导出
+            log.warn("导出检查点所有权校验失败:{},{}", checkpoint.getFileName(), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 登记一个可续传的导出
+     *
+     * @param job 导出任务
+     * @param fileName 文件名
+     * @param pages 总页数
+     * @return 检查点,未能登记所属实例时为空
+     */
+    public Checkpoint begin(ExportJob<?> job, String fileName, int pages) {
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.setFileName(fileName);
+        checkpoint.setResumable(job.getResumable());
+        checkpoint.setResumeArgs(job.getResumeArgs());
+        checkpoint.setUserId(job.getUserId());
+        checkpoint.setFormat(job.getFormat());
+        checkpoint.setPages(pages);
+        checkpoint.setSize(job.getSize());
+        checkpoint.setCreated(System.currentTimeMillis());
+        String owner = instance;
+        if (!this.claim(fileName, null, owner)) {
+            return null;
+        }
+        checkpoint.setOwner(owner);
+        this.save(checkpoint);
+        return checkpoint;
+    }
+
+    /**
+     * 登记一个工作表已结束,输出文件需已同步到磁盘
+     *
+     * @param index 工作表下标,从0开始
+     * @param rows 工作表的数据行数
+     * @return 是否仍持有检查点,失去所有权时不再登记
+     */
+    public boolean done(Checkpoint checkpoint, int index, int rows) {
+        synchronized (checkpoint) {
+            if (!this.owns(checkpoint)) {
+                return false;
+            }
+            checkpoint.getSheets().put(index, rows);
+            this.save(checkpoint);
+            return true;
+        }
+    }
+
+    /**
+     * 导出结束(成功或失败)后删除检查点,已被其他实例接管的检查点保留
+     */
+    public void remove(Checkpoint checkpoint) {
+        if (!this.owns(checkpoint)) {
+            return;
+        }
+        this.delete(checkpoint);
+    }
+
+    private void delete(Checkpoint checkpoint) {
+        this.unlock(checkpoint);
+        try {
+            Files.deleteIfExists(this.path(checkpoint.getFileName()));
+        } catch (IOException e) {
+            log.warn("导出检查点删除失败:{},{}", checkpoint.getFileName(), e.getMessage());
+        }
+    }
+
+    /**
+     * 放弃续传,检查点在下一轮由任意实例重新抢占
+     */
+    public void release(Checkpoint checkpoint) {
+        synchronized (checkpoint) {
+            if (!this.owns(checkpoint)) {
+                return;
+            }
+            checkpoint.setOwner(null);
+            this.save(checkpoint);
+            this.unlock(checkpoint);
+        }
+    }
+
+    /**
+     * 抢占所属实例已失去存活标记的检查点,超过保留时长的检查点连同输出文件直接删除
+     *
+     * @param resumables 本实例可以重新构建的导出名称
+     * @return 本实例抢占到的检查点
+     */
+    public List<Checkpoint> claim(Set<String> resumables) {
+        List<Checkpoint> claimed = new ArrayList<>();
+        Path dir = Paths.get(DIR);
+        if (!Files.isDirectory(dir)) {
+            return claimed;
+        }
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path path : stream) {
+                Checkpoint checkpoint = this.read(path);
+                if (checkpoint == null) {
+                    continue;
+                }
+                if (now - checkpoint.getCreated() > maxAgeSeconds * 1000) {
+                    this.delete(checkpoint);
+                    this.deletePart(checkpoint);
+                    continue;
+                }
+                if (!resumables.contains(checkpoint.getResumable()) || instance.equals(checkpoint.getOwner())
+                        || (checkpoint.getOwner() != null && this.alive(checkpoint.getOwner()))) {
+                    continue;
+                }
+                String owner = instance;
+                if (this.claim(checkpoint.getFileName(), checkpoint.getOwner(), owner)) {
+                    checkpoint.setOwner(owner);
+                    this.save(checkpoint);
+                    claimed.add(checkpoint);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("遍历导出检查点失败:{}", e.getMessage());
+        }
+        return claimed;
+    }
+
+    /**
+     * 删除检查点与未完成的输出文件
+     */
+    public void discard(Checkpoint checkpoint) {
+        if (!this.owns(checkpoint)) {
+            return;
+        }
+        this.delete(checkpoint);
+        this.deletePart(checkpoint);
+        log.info("放弃续传导出:{}", checkpoint.getFileName());
+    }
+
+    private void deletePart(Checkpoint checkpoint) {
+        String part = ExcelExportUtils.PUBLIC_EXPORT_DIR + checkpoint.getFileName() + ".part";
+        for (File file : new File[]{new File(part), new File(part + ".restore")}) {
+            if (file.exists() && !file.delete()) {
+                log.warn("导出续传文件删除失败:{}", file);
+            }
+        }
+    }
+
+    private Checkpoint read(Path path) {
+        try {
+            return JSON.parseObject(new String(Files.readAllBytes(path), StandardCharsets.UTF_8), Checkpoint.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            log.warn("导出检查点读取失败:{},{}", path.getFileName(), e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean alive(String owner) {
+        byte[] key = STRING.serialize(INSTANCE_PREFIX + owner);
+        return Boolean.TRUE.equals(redisService.execute((RedisCallback<Boolean>) connection -> connection.exists(key)));
+    }
+
+    /**
+     * 所属实例仍为from时改为to
+     *
+     * @param from 检查点记录的所属实例,为空表示无所属实例
+     */
+    private boolean claim(String fileName, String from, String to) {
+        byte[] key = STRING.serialize(OWNER_PREFIX + fileName);
+        try {
+            Long claimed = redisService.execute((RedisCallback<Long>) connection -> connection.eval(CLAIM_SCRIPT,
+                    ReturnType.INTEGER, 1, key, STRING.serialize(from == null ? "" : from), STRING.serialize(to),
+                    STRING.serialize(String.valueOf(maxAgeSeconds))));
+            return claimed != null && claimed == 1;
+        } catch (RuntimeException e) {
+            log.warn("导出检查点抢占失败:{},{}", fileName, e.getMessage());
+            return false;
+        }
+    }
+
+    private void unlock(Checkpoint checkpoint) {
+        if (checkpoint.getOwner() == null) {
+            return;
+        }
+        byte[] key = STRING.serialize(OWNER_PREFIX + checkpoint.getFileName());
+        try {
+            redisService.execute((RedisCallback<Long>) connection -> connection.eval(RELEASE_SCRIPT,
+                    ReturnType.INTEGER, 1, key, STRING.serialize(checkpoint.getOwner())));
+        } catch (RuntimeException e) {
+            log.warn("导出检查点释放失败:{},{}", checkpoint.getFileName(), e.getMessage());
+        }
+    }
+
+    /**
+     * 先写入临时文件并同步到磁盘,再原子替换,中断时不会留下不完整的检查点
+     */
+    private void save(Checkpoint checkpoint) {
+        Path path = this.path(checkpoint.getFileName());
+        Path temp = Paths.get(path + ".tmp");
+        try {
+            Files.createDirectories(path.getParent());
+            try (FileOutputStream out = new FileOutputStream(temp.toFile())) {
+                out.write(JSON.toJSONString(checkpoint).getBytes(StandardCharsets.UTF_8));
+                out.getFD().sync();
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // 检查点只用于续传,写入失败不影响本次导出
+            log.warn("导出检查点写入失败:{},{}", checkpoint.getFileName(), e.getMessage());
+        }
+    }
+
+    private Path path(String fileName) {
+        return Paths.get(DIR, fileName + SUFFIX);
+    }
+
+    /**
+     * 是否存在该导出文件的检查点,存在时其.part与.part.restore文件是续传的来源,不能当作遗留文件清理
+     *
+     * @param fileName 导出文件名
+     */
+    static boolean exists(String fileName) {
+        return Files.exists(Paths.get(DIR, fileName + SUFFIX));
+    }
+
+    /**
+     * 检查点
+     */
+    @Data
+    public static class Checkpoint {
+        private String fileName;
+        /**
+         * 可续传导出的名称与参数,见{@link ResumableExport}
+         */
+        private String resumable;
+        private String resumeArgs;
+        private long userId;
+        private ExportFormat format;
+        private int pages;
+        private int size;
+        private long created;
+        /**
+         * 执行中的实例,为空时可被任意实例抢占
+         */
+        private String owner;
+        /**
+         * 已结束的工作表下标(从0开始) -> 数据行数
+         */
+        private Map<Integer, Integer> sheets = new HashMap<>();
+    }
+}
@@ -2,24 +2,43 @@ package com.spring.facade;
 
 import com.alibaba.fastjson.JSONObject;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.spring.util.CsvStreamWriter;
+import com.spring.util.ExcelExportPlan;
 import com.spring.util.ExcelExportUtils;
+import com.spring.util.ExcelStreamWriter;
+import com.spring.util.ExportCheckpoint;
+import com.spring.util.ExportFormat;
+import com.spring.util.ExportWriter;
+import com.spring.util.RowBuffer;
+import com.spring.util.SerialExecutor;
 import org.apache.ibatis.cursor.Cursor;
 import org.springframework.data.redis.core.RedisTemplate;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Lazy;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
+import java.util.function.IntFunction;
 
 /**
  * 导出门面
@@ -32,130 +51,957 @@ import java.util.function.Consumer;
 @RequiredArgsConstructor(onConstructor_ = {@Lazy, @Autowired})
 public class ExportFacade {
     private final RedisTemplate<String, Object> redisService;
-    private final ThreadPoolTaskExecutor poolTaskExecutor;
     private final PlatformTransactionManager dataSourceTransactionManager;
+    private final ExportScheduler exportScheduler;
+    private final ExportResultCache exportResultCache;
+    private final ExportMetrics exportMetrics;
+    private final ExportCheckpointStore exportCheckpointStore;
 
-    private int pages = 1; // 初始总页数
-    private int size = ExcelExportUtils.MAX_EXPORT_COUNT; // 初始条数
-    public ExportFacade setPages(int pages) { this.pages = pages; return this; }
-    public ExportFacade setSize(int size) { this.size = size; return this; }
+    @Value("${export.row-window:" + ExcelExportUtils.DEFAULT_ROW_WINDOW + "}")
+    private int rowWindow = ExcelExportUtils.DEFAULT_ROW_WINDOW; // 每个工作表内存中保留的行数
+    @Value("${export.progress.rows-interval-ms:1000}")
+    private long rowsIntervalMillis = 1000; // 游标导出上报已写入行数的最小间隔
 
-    private <T> void autoPages(DataProvider<T> dataService) {
+    public <T> ExportHandle execute(String fileName, Class<T> clazz, DataProvider<T> dataService, long userId) {
+        return this.execute(fileName, clazz, dataService, false, userId);
+    }
+
+    public <T> ExportHandle execute(String fileName, Class<T> clazz, DataProvider<T> dataService, boolean auto, long userId) {
+        return this.execute(fileName, clazz, dataService, auto, ExportFormat.XLSX, userId);
+    }
+
+    public <T> ExportHandle execute(String fileName, Class<T> clazz, DataProvider<T> dataService, boolean auto,
+                                    ExportFormat format, long userId) {
+        return this.submit(ExportJob.of(fileName, clazz, userId).dataProvider(dataService).auto(auto).format(format).build());
+    }
+
+    /**
+     * 游标处理-游标只有在事务中才会生效
+     *
+     * @param fileName 文件名
+     * @param clazz 目标类
+     * @param dataService 数据供给
+     * @param handler 额外的分批处理器-游标数据每N条进行一次截片处理（可以用以拼接第三方数据）-分片大小见{@link ExportJob#getHandlerSize()}
+     * @param userId 用户ID
+     * @param <T> 目标对象-存在属性必须标注了Excel注解
+     */
+    public <T> ExportHandle cursor(String fileName, Class<T> clazz, CursorProvider<T> dataService, Consumer<List<T>> handler, long userId) {
+        return this.cursor(fileName, clazz, dataService, handler, ExportFormat.XLSX, userId);
+    }
+
+    /**
+     * 游标处理-指定输出格式,见{@link ExportFormat}
+     */
+    public <T> ExportHandle cursor(String fileName, Class<T> clazz, CursorProvider<T> dataService, Consumer<List<T>> handler,
+                                   ExportFormat format, long userId) {
+        return this.submit(ExportJob.of(fileName, clazz, userId).cursorProvider(dataService).handler(handler)
+                .format(format).build());
+    }
+
+    /**
+     * 提交导出任务,任务参数只属于本次导出,多个导出可以同时安全执行;
+     * 设置了缓存键时,相同的导出直接返回已生成或生成中的任务句柄
+     *
+     * @param job 导出任务
+     * @param <T> 目标对象-存在属性必须标注了Excel注解
+     * @return 任务句柄
+     * @throws IllegalArgumentException 分页导出的页数或每页条数小于1
+     */
+    public <T> ExportHandle submit(ExportJob<T> job) {
+        if (job.getSize() < 1 || (!job.isCursor() && job.getKeysetProvider() == null && !job.isAuto() && job.getPages() < 1)) {
+            throw new IllegalArgumentException("导出的页数与每页条数需大于0:pages=" + job.getPages() + ",size=" + job.getSize());
+        }
+        return exportResultCache.computeIfAbsent(job, () -> this.start(job));
+    }
+
+    private <T> ExportHandle start(ExportJob<T> job) {
+        ExportCheckpoint checkpoint = this.checkpointed(job) ? ExportCheckpoint.create() : null;
+        ExportWriter exportUtil = this.writer(job, job.getFormat(), checkpoint);
+        ExportHandle handle = new ExportHandle(exportUtil.getFileName(), job.getUserId());
+        String mode = job.isCursor() ? "cursor" : job.getKeysetProvider() != null ? "keyset" : "page";
+        ExportMetrics.Recorder metrics = exportMetrics.start(job, mode);
+        handle.getFuture().whenComplete((fileName, e) -> metrics.finish(e == null ? fileName : null));
+        try {
+            if (job.isCursor()) {
+                this.cursor(job, exportUtil, handle, metrics);
+            } else if (job.getKeysetProvider() != null) {
+                this.keyset(job, job.getKeysetProvider(), exportUtil, handle, metrics);
+            } else {
+                this.execute(job, exportUtil, handle, metrics, checkpoint);
+            }
+        } catch (RuntimeException e) {
+            metrics.finish(null);
+            throw e;
+        }
+        return handle;
+    }
+
+    /**
+     * 续传中断的分页导出:沿用检查点中的文件名、格式、页数与每页条数,只导出缺失的页,见{@link ExportRecovery}
+     *
+     * @param job 由{@link ResumableExport}重新构建的导出任务,只提供数据
+     * @param checkpoint 检查点
+     * @param <T> 目标对象-存在属性必须标注了Excel注解
+     * @return 任务句柄
+     */
+    public <T> ExportHandle resume(ExportJob<T> job, ExportCheckpointStore.Checkpoint checkpoint) {
+        ExportCheckpoint sheets = ExportCheckpoint.resume(checkpoint.getFileName(), checkpoint.getSheets().keySet());
+        ExportWriter exportUtil = this.writer(job, checkpoint.getFormat(), sheets);
+        ExportHandle handle = new ExportHandle(exportUtil.getFileName(), job.getUserId());
+        ExportMetrics.Recorder metrics = exportMetrics.start(job, "page");
+        Checkpointing checkpointing = new Checkpointing(checkpoint, sheets, handle);
+        handle.fence(() -> exportCheckpointStore.owns(checkpoint));
+        handle.getFuture().whenComplete((fileName, e) -> {
+            metrics.finish(e == null ? fileName : null);
+            exportCheckpointStore.remove(checkpoint);
+        });
+        try {
+            this.pages(job, exportUtil, checkpoint.getPages(), checkpoint.getSize(), handle, metrics,
+                    this.page(job.getDataProvider(), checkpoint.getSize()), checkpointing);
+        } catch (RuntimeException e) {
+            metrics.finish(null);
+            throw e;
+        }
+        return handle;
+    }
+
+    /**
+     * 是否记录检查点:指定了可续传名称的xlsx分页导出
+     */
+    private boolean checkpointed(ExportJob<?> job) {
+        if (job.getResumable() == null || job.isCursor() || job.getKeysetProvider() != null) {
+            return false;
+        }
+        if (job.getFormat() == ExportFormat.CSV || job.getFormat() == ExportFormat.CSV_GZIP) {
+            log.warn("CSV导出不支持续传:{}", job.getResumable());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 按格式选择写入后端
+     *
+     * @param checkpoint 检查点,只用于xlsx格式,为空时不开启
+     */
+    private <T> ExportWriter writer(ExportJob<T> job, ExportFormat format, ExportCheckpoint checkpoint) {
+        ExcelExportPlan plan = ExcelExportPlan.of(job.getClazz());
+        if (format == ExportFormat.CSV || format == ExportFormat.CSV_GZIP) {
+            return new CsvStreamWriter(plan, ExcelExportUtils.PUBLIC_EXPORT_DIR, job.getFileName(),
+                    format == ExportFormat.CSV_GZIP);
+        }
+        if (format == ExportFormat.XLSX_STREAM) {
+            if (ExcelStreamWriter.supports(plan)) {
+                return new ExcelStreamWriter(plan, ExcelExportUtils.PUBLIC_EXPORT_DIR, job.getFileName(), checkpoint);
+            }
+            log.warn("导出对象存在提示或下拉列,改用POI写入:{}", job.getClazz().getName());
+        }
+        return new ExcelExportUtils<>(job.getClazz(), ExcelExportUtils.PUBLIC_EXPORT_DIR, job.getFileName(), rowWindow,
+                checkpoint);
+    }
+
+    /**
+     * 查询总数计算页数,只用于需要预先确定页数的可续传导出
+     */
+    private <T> int autoPages(ExportJob<T> job, ExportMetrics.Recorder metrics) {
+        long start = System.nanoTime();
         Page<T> page = new Page<>(0, 0);
         page.setSearchCount(true);
-        long total = dataService.page(page).getTotal();
-        this.pages = (int)Math.ceil(((double)total) / size);
-    }
-    public <T> void execute(String fileName, Class<T> clazz, DataProvider<T> dataService, long userId) {
-        this.execute(fileName, clazz, dataService, false, userId);
+        long total = job.getDataProvider().page(page).getTotal();
+        metrics.record(ExportMetrics.Stage.COUNT, start);
+        // 没有数据时也保留一个带标题的工作表
+        return Math.max((int)Math.ceil(((double)total) / job.getSize()), 1);
     }
 
-    public <T> void execute(String fileName, Class<T> clazz, DataProvider<T> dataService, boolean auto, long userId) {
-        ExcelExportUtils<T> exportUtil = new ExcelExportUtils<>(clazz,
-                ExcelExportUtils.PUBLIC_EXPORT_DIR, fileName);
-        ExcelExportUtils.ExcelTaskUtil.addExportFile(redisService, exportUtil.getFileName(), userId, pages);
-        if (auto) {
-            this.autoPages(dataService);
+    private <T> void execute(ExportJob<T> job, ExportWriter exportUtil, ExportHandle handle, ExportMetrics.Recorder metrics,
+                             ExportCheckpoint checkpoint) {
+        if (job.isAuto() && checkpoint == null) {
+            new Discovery<>(job, exportUtil, handle, metrics).start();
+            return;
+        }
+        // 检查点需要预先确定页数,可续传的自动分页导出仍先查询总数
+        int pages = job.isAuto() ? this.autoPages(job, metrics) : job.getPages();
+        int size = job.getSize();
+        Checkpointing checkpointing = null;
+        if (checkpoint != null) {
+            ExportCheckpointStore.Checkpoint record = exportCheckpointStore.begin(job, exportUtil.getFileName(), pages);
+            // 未能登记检查点时照常导出,只是中断后不能续传
+            if (record != null) {
+                handle.fence(() -> exportCheckpointStore.owns(record));
+                handle.getFuture().whenComplete((fileName, e) -> exportCheckpointStore.remove(record));
+                checkpointing = new Checkpointing(record, checkpoint, handle);
+            }
         }
+        this.pages(job, exportUtil, pages, size, handle, metrics, this.page(job.getDataProvider(), size), checkpointing);
+    }
 
-        for (int i = 1; i <= pages; i++) {
-            Page<T> page = new Page<>(i, size);
+    private <T> IntFunction<List<T>> page(DataProvider<T> dataService, int size) {
+        return i -> {
+            Page<T> page = new Page<>(i + 1, size);
             page.setSearchCount(false);
-            poolTaskExecutor.execute(() -> {
-                try{
-                    List<T> list = dataService.page(page).getRecords();
-                    exportUtil.build(list, exportUtil.buildSheet((int)(page.getCurrent() - 1)));
-                } catch (Exception e) {
-                    log.error("线程池异常：{},{}", e.getMessage(),
-                            JSONObject.toJSONString(e.getStackTrace()));
-                } finally {
-                    if (ExcelExportUtils.ExcelTaskUtil.scheduleExportFile(redisService, exportUtil.getFileName(), userId)) {
-                        exportUtil.make();
+            return dataService.page(page).getRecords();
+        };
+    }
+
+    private <T, K> void keyset(ExportJob<T> job, KeysetProvider<T, K> dataService, ExportWriter exportUtil, ExportHandle handle,
+                               ExportMetrics.Recorder metrics) {
+        int size = job.getSize();
+        // 区间边界随查询按需定位,页数由不足一页的区间确定,恰好整页结束时末尾的空区间不保留工作表
+        Bounds<K> bounds = new Bounds<>(dataService, size);
+        new Discovery<>(job, exportUtil, handle, metrics, i -> {
+            K after = i == 0 ? null : bounds.upper(i - 1);
+            if (i > 0 && after == null) {
+                // 上一区间已到末尾
+                return Collections.emptyList();
+            }
+            return dataService.range(after, bounds.upper(i), size);
+        }).start();
+    }
+
+    /**
+     * 键集分页的区间边界:按区间序逐段定位并缓存,每次定位只在索引上向后数size条,代价与页深无关
+     */
+    private static class Bounds<K> {
+        private final KeysetProvider<?, K> dataService;
+        private final int size;
+        private final List<K> found = new ArrayList<>();
+        private final Lock lock = new ReentrantLock();
+        private boolean exhausted;
+
+        Bounds(KeysetProvider<?, K> dataService, int size) {
+            this.dataService = dataService;
+            this.size = size;
+        }
+
+        /**
+         * 第index个区间的上界(含),为空代表直到末尾
+         */
+        K upper(int index) {
+            // 定位期间会等待数据库,不使用synchronized以免占住虚拟线程的载体线程
+            lock.lock();
+            try {
+                while (found.size() <= index && !exhausted) {
+                    K bound = dataService.bound(found.isEmpty() ? null : found.get(found.size() - 1), size);
+                    if (bound == null) {
+                        exhausted = true;
+                    } else {
+                        found.add(bound);
                     }
                 }
+                return index < found.size() ? found.get(index) : null;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 分页导出流水线:各页数据查询与单元格格式化经由导出调度器并行执行,写入阶段串行
+     *
+     * @param pages 总页数
+     * @param size 每页条数
+     * @param fetch 按页序(从0开始)查询数据
+     * @param checkpointing 检查点,为空时不记录;已恢复的页不再导出
+     */
+    private <T> void pages(ExportJob<T> job, ExportWriter exportUtil, int pages, int size, ExportHandle handle,
+                           ExportMetrics.Recorder metrics, IntFunction<List<T>> fetch, Checkpointing checkpointing) {
+        long userId = job.getUserId();
+        int restored = checkpointing == null ? 0 : checkpointing.sheets.getRestored().size();
+        // 每页一个查询任务与一个写入任务,队列已满时在登记进度之前拒绝
+        ExportScheduler.Lane tasks = exportScheduler.open(userId, this.priority(job, pages), job.getWorkers(),
+                Math.max((pages - restored) * 2, 1));
+        handle.getFuture().whenComplete((fileName, e) -> tasks.close());
+        ExportWriter.SheetWriter[] sheets = new ExportWriter.SheetWriter[pages];
+        try {
+            long start = System.nanoTime();
+            if (restored > 0) {
+                ExcelExportUtils.ExcelTaskUtil.resumeExportFile(redisService, exportUtil.getFileName(), userId, restored, pages,
+                        checkpointing.restoredRows());
+            } else {
+                ExcelExportUtils.ExcelTaskUtil.addExportFile(redisService, exportUtil.getFileName(), userId, pages);
+            }
+            metrics.record(ExportMetrics.Stage.REDIS, start);
+
+            // 工作表按页序预先创建
+            for (int i = 0; i < pages; i++) {
+                sheets[i] = exportUtil.createSheet(ExcelExportUtils.sheetName(i, size));
+            }
+        } catch (RuntimeException e) {
+            tasks.close();
+            throw e;
+        }
+        // 写入阶段:工作表写入与文件生成只在串行执行器中进行
+        Executor writer = new SerialExecutor(tasks);
+        if (checkpointing != null && restored == pages) {
+            // 全部页均已恢复,只需生成文件
+            tasks.execute(() -> this.make(exportUtil, handle, metrics));
+            return;
+        }
+        Executor io = exportScheduler.io();
+        int[] order = new int[pages - restored];
+        for (int i = 0, n = 0; i < pages; i++) {
+            if (checkpointing == null || !checkpointing.sheets.isRestored(i)) {
+                order[n++] = i;
+            }
+        }
+        // 查询中及待写入的页数受限,每写完一页再提交下一页,不预先把全部页排入通道与写入队列
+        AtomicInteger next = new AtomicInteger();
+        Runnable[] feed = new Runnable[1];
+        feed[0] = () -> {
+            int n = next.getAndIncrement();
+            if (n >= order.length) {
+                return;
+            }
+            int index = order[n];
+            ExportWriter.SheetWriter sheet = checkpointing == null ? sheets[index] : checkpointing.track(sheets[index], index);
+            if (io == null) {
+                // 数据查询与单元格格式化并行执行
+                tasks.execute(() -> {
+                    RowBuffer rows = this.prepare(exportUtil, this.fetch(fetch, index, metrics), metrics);
+                    writer.execute(() -> this.write(sheet, rows, metrics, () -> {
+                        feed[0].run();
+                        this.schedule(exportUtil, userId, handle, tasks, metrics, rows == null ? 0 : rows.size());
+                    }));
+                });
+                return;
+            }
+            // 数据查询在虚拟线程中等待数据库,单元格格式化回到通道执行
+            io.execute(() -> {
+                List<T> data = this.fetch(fetch, index, metrics);
+                tasks.execute(() -> {
+                    RowBuffer rows = this.prepare(exportUtil, data, metrics);
+                    writer.execute(() -> this.write(sheet, rows, metrics, () -> {
+                        feed[0].run();
+                        this.schedule(exportUtil, userId, handle, tasks, metrics, rows == null ? 0 : rows.size());
+                    }));
+                });
             });
+        };
+        for (int i = Math.min(exportScheduler.getIoInFlight(), order.length); i > 0; i--) {
+            feed[0].run();
         }
     }
 
-    public ExportFacade setCursor(int handlerSize) {
-        this.handlerSize = handlerSize;
-        return this;
+    private <T> List<T> fetch(IntFunction<List<T>> fetch, int index, ExportMetrics.Recorder metrics) {
+        long start = System.nanoTime();
+        try {
+            return fetch.apply(index);
+        } catch (Exception e) {
+            log.error("线程池异常：{},{}", e.getMessage(),
+                    JSONObject.toJSONString(e.getStackTrace()));
+            return null;
+        } finally {
+            metrics.record(ExportMetrics.Stage.FETCH, start);
+        }
+    }
+
+    private RowBuffer prepare(ExportWriter exportUtil, List<?> data, ExportMetrics.Recorder metrics) {
+        if (data == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        try {
+            return exportUtil.prepare(data);
+        } catch (Exception e) {
+            log.error("线程池异常：{},{}", e.getMessage(),
+                    JSONObject.toJSONString(e.getStackTrace()));
+            return null;
+        } finally {
+            metrics.record(ExportMetrics.Stage.PREPARE, start);
+        }
     }
-    private int handlerSize = 1000;
 
     /**
-     * 游标处理-游标只有在事务中才会生效
-     *
-     * @param fileName 文件名
-     * @param clazz 目标类
-     * @param dataService 数据供给
-     * @param handler 额外的分批处理器-游标数据每N条进行一次截片处理（可以用以拼接第三方数据）-可以使用setCursor来指定分片大小
-     * @param userId 用户ID
-     * @param <T> 目标对象-存在属性必须标注了Excel注解
+     * 写入一页数据并结束工作表,无论成功与否最后执行done
+     */
+    private void write(ExportWriter.SheetWriter sheet, RowBuffer rows, ExportMetrics.Recorder metrics, Runnable done) {
+        try {
+            long start = System.nanoTime();
+            if (rows != null) {
+                sheet.append(rows);
+                metrics.rows(rows.size());
+                metrics.record(ExportMetrics.Stage.APPEND, start);
+                start = System.nanoTime();
+            }
+            sheet.close();
+            metrics.record(ExportMetrics.Stage.CLOSE, start);
+        } catch (Exception e) {
+            log.error("线程池异常：{},{}", e.getMessage(),
+                    JSONObject.toJSONString(e.getStackTrace()));
+        } finally {
+            done.run();
+        }
+    }
+
+    /**
+     * 游标导出流水线:读取线程在事务中按批读取游标,各批的处理器与单元格格式化在线程池中并行执行,
+     * 写入按读取顺序串行追加;同时在途的批次数受限,内存占用与数据总量无关
      */
-    public <T> void cursor(String fileName, Class<T> clazz, CursorProvider<T> dataService, Consumer<List<T>> handler, long userId) {
+    private <T> void cursor(ExportJob<T> job, ExportWriter exportUtil, ExportHandle handle, ExportMetrics.Recorder metrics) {
         // 创建一个事务模板用默认的数据源事务管理器
         TransactionTemplate transactionTemplate = new TransactionTemplate(dataSourceTransactionManager);
-        ExcelExportUtils<T> exportUtil = new ExcelExportUtils<>(ExcelExportUtils.PUBLIC_EXPORT_DIR, fileName);
+        long userId = job.getUserId();
+        Consumer<List<T>> handler = job.getHandler();
+        int inFlight = Math.max(job.getWorkers(), 1) * 2;
+        // 读取线程在整个导出期间阻塞在游标上,使用专属的读取线程(虚拟线程模式下使用虚拟线程),不占用通道所在的线程池;
+        // 各批的处理与写入经由通道调度
+        Executor io = exportScheduler.io();
+        ExportScheduler.Lane tasks = exportScheduler.open(userId, this.priority(job, -1), job.getWorkers(), inFlight * 2);
+        handle.getFuture().whenComplete((fileName, e) -> tasks.close());
+        long start = System.nanoTime();
+        try {
+            ExcelExportUtils.ExcelTaskUtil.addExportFile(redisService, exportUtil.getFileName(), userId, 1);
+        } catch (RuntimeException e) {
+            tasks.close();
+            throw e;
+        }
+        metrics.record(ExportMetrics.Stage.REDIS, start);
+
+        CursorSheets sheets = new CursorSheets(exportUtil, job.getSize(), metrics);
+        CursorRows written = new CursorRows(exportUtil.getFileName(), userId);
+        Semaphore permits = new Semaphore(inFlight);
+        (io != null ? io : exportScheduler.readers()).execute(() -> {
+            // 写入链:每一批在上一批写入完成且自身准备完成后才写入,保证顺序且同一时刻只有一个写入
+            AtomicReference<CompletableFuture<Void>> tail = new AtomicReference<>(CompletableFuture.completedFuture(null));
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            try {
+                transactionTemplate.execute(action -> {
+                    try (Cursor<T> cursor = job.getCursorProvider().cursor()) {
+                        // 分批处理游标数据，每收集一部分进行处理,这样是会多几次循环操作 但是可以保证职责单一与良好的隔离性
+                        this.handler(cursor, data -> {
+                            permits.acquireUninterruptibly();
+                            CompletableFuture<RowBuffer> prepared = CompletableFuture.supplyAsync(() -> {
+                                long begin = System.nanoTime();
+                                if (handler != null) {
+                                    // TODO 对每批数据做一些额外的处理
+                                    handler.accept(data);
+                                    metrics.record(ExportMetrics.Stage.HANDLER, begin);
+                                    begin = System.nanoTime();
+                                }
+                                RowBuffer rows = exportUtil.prepare(data);
+                                metrics.record(ExportMetrics.Stage.PREPARE, begin);
+                                return rows;
+                            }, tasks);
+                            CompletableFuture<Void> step = tail.get().thenCombineAsync(prepared, (v, rows) -> {
+                                sheets.append(rows);
+                                written.add(rows.size());
+                                return null;
+                            }, tasks);
+                            step.whenComplete((v, e) -> permits.release());
+                            tail.set(step);
+                        }, job.getHandlerSize(), () -> tail.get().isCompletedExceptionally(), metrics);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return null;
+                });
+            } catch (Exception e) {
+                failure.set(e);
+            }
+            tail.get().whenCompleteAsync((v, e) -> {
+                // 读取或写入失败时文件不完整,结束任务而不生成文件
+                Throwable error = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                if (error == null) {
+                    error = failure.get();
+                }
+                if (error != null) {
+                    try {
+                        sheets.close();
+                    } catch (RuntimeException closeError) {
+                        error.addSuppressed(closeError);
+                    }
+                    handle.getFuture().completeExceptionally(error);
+                    log.error("数据导出失败：{}", exportUtil.getFileName(), error);
+                    return;
+                }
+                try {
+                    sheets.close();
+                } finally {
+                    this.schedule(exportUtil, userId, handle, tasks, metrics, written.pending);
+                }
+            }, tasks);
+        });
+    }
 
-        AtomicInteger i = new AtomicInteger();
-        poolTaskExecutor.execute(() -> transactionTemplate.execute(action -> {
-            Cursor<T> cursor = null;
+    /**
+     * 游标导出的工作表写入状态,只在写入链中访问
+     */
+    private static class CursorSheets {
+        private final ExportWriter exportUtil;
+        private final int size;
+        private final ExportMetrics.Recorder metrics;
+        private ExportWriter.SheetWriter write;
+        private int index;
+
+        CursorSheets(ExportWriter exportUtil, int size, ExportMetrics.Recorder metrics) {
+            this.exportUtil = exportUtil;
+            this.size = size;
+            this.metrics = metrics;
+        }
+
+        void append(RowBuffer rows) {
+            if (write == null || write.size() + rows.size() > size) {
+                if (write != null) {
+                    this.closeSheet();
+                }
+                write = exportUtil.createSheet("第" + (++index) + "页");
+            }
+            long start = System.nanoTime();
+            write.append(rows);
+            metrics.rows(rows.size());
+            metrics.record(ExportMetrics.Stage.APPEND, start);
+        }
+
+        void close() {
+            if (write == null) {
+                // 没有数据时也保留一个带标题的工作表
+                write = exportUtil.createSheet("第" + (++index) + "页");
+            }
+            this.closeSheet();
+        }
+
+        private void closeSheet() {
+            long start = System.nanoTime();
+            write.close();
+            metrics.record(ExportMetrics.Stage.CLOSE, start);
+        }
+    }
+
+    /**
+     * 自动分页导出:不预先查询总数,立即开始查询首页
+     * <p>
+     * 同时查询的页数保持在窗口大小，每查到一个满页追加查询下一页；查到不足一页(或空页)时停止追加，该页之后的页丢弃，
+     * 其之前的页全部查询结束后确定总页数；查询中与待写入的页数不超过窗口的两倍。总数估算({@link TotalEstimator})只用于展示进度与判断优先级，
+     * 任务的片段总数在确定前始终大于已完成片段数，确定后改写为实际页数，由最后完成的一方生成文件
+     * <p>
+     * 查询状态由this保护，工作表只在写入链中按页序创建，片段总数的改写同样经由写入链，与片段完成保持先后顺序
+     */
+    private class Discovery<T> {
+        private final ExportJob<T> job;
+        private final ExportWriter exportUtil;
+        private final ExportHandle handle;
+        private final ExportMetrics.Recorder metrics;
+        private final IntFunction<List<T>> fetch;
+        private final Executor io;
+        private final ExportScheduler.Lane tasks;
+        private final Executor writer;
+        private final int window;
+        private final int estimated;
+        private final List<ExportWriter.SheetWriter> sheets = new ArrayList<>();
+
+        /**
+         * 已提交查询的页数
+         */
+        private int launched;
+        /**
+         * 查询中的页序
+         */
+        private final BitSet fetching = new BitSet();
+        /**
+         * 已写入或丢弃的页数
+         */
+        private int finished;
+        /**
+         * 满页后待追加的查询数,在途页数达到上限时延后到有页写入完成
+         */
+        private int owed;
+        /**
+         * 已保留的最大页序
+         */
+        private int kept = -1;
+        /**
+         * 总页数的上限,由不足一页的查询结果得出,未查到时为-1
+         */
+        private int end = -1;
+        /**
+         * 总页数是否已确定
+         */
+        private boolean determined;
+        /**
+         * 已登记的片段总数
+         */
+        private int announced;
+
+        Discovery(ExportJob<T> job, ExportWriter exportUtil, ExportHandle handle, ExportMetrics.Recorder metrics) {
+            this(job, exportUtil, handle, metrics, page(job.getDataProvider(), job.getSize()));
+        }
+
+        /**
+         * @param fetch 按页序(从0开始)查询数据,超出数据范围的页返回空列表
+         */
+        Discovery(ExportJob<T> job, ExportWriter exportUtil, ExportHandle handle, ExportMetrics.Recorder metrics,
+                  IntFunction<List<T>> fetch) {
+            this.job = job;
+            this.exportUtil = exportUtil;
+            this.handle = handle;
+            this.metrics = metrics;
+            this.fetch = fetch;
+            this.io = exportScheduler.io();
+            this.window = io != null ? exportScheduler.getIoInFlight() : Math.max(job.getWorkers(), 1);
+            this.estimated = this.estimate();
+            this.tasks = exportScheduler.open(job.getUserId(), priority(job, estimated > 0 ? estimated : -1),
+                    job.getWorkers(), window * 2);
+            handle.getFuture().whenComplete((fileName, e) -> tasks.close());
+            this.writer = new SerialExecutor(tasks);
+        }
+
+        /**
+         * 估算页数,未设置估算或估算失败时为0
+         */
+        private int estimate() {
+            if (job.getEstimator() == null) {
+                return 0;
+            }
+            long start = System.nanoTime();
             try {
-                // 获取页写入对象
-                AtomicReference<ExcelExportUtils<?>.Write> atomic = new AtomicReference<>();
-                ExcelExportUtils<?>.Write write = exportUtil.build(exportUtil.buildSheet("第" + (i.get() + 1) + "页"),
-                        exportUtil.buildExcelField(clazz));
-                atomic.set(write);
-
-                cursor = dataService.cursor();
-                // 每收集一定条目进行一次处理
-                Consumer<List<T>> resultHandler = (data) -> {
-                    if (handler != null) {
-                        // TODO 对每批数据做一些额外的处理
-                        handler.accept(data);
+                long total = job.getEstimator().estimate();
+                return total > 0 ? (int) Math.ceil(((double) total) / job.getSize()) : 0;
+            } catch (RuntimeException e) {
+                log.warn("导出总数估算失败：{}", e.getMessage());
+                return 0;
+            } finally {
+                metrics.record(ExportMetrics.Stage.COUNT, start);
+            }
+        }
+
+        synchronized void start() {
+            announced = Math.max(estimated, window + 1);
+            long start = System.nanoTime();
+            try {
+                ExcelExportUtils.ExcelTaskUtil.addExportFile(redisService, exportUtil.getFileName(), job.getUserId(), announced);
+            } catch (RuntimeException e) {
+                tasks.close();
+                throw e;
+            }
+            metrics.record(ExportMetrics.Stage.REDIS, start);
+            owed = window;
+            this.pump();
+        }
+
+        /**
+         * 在途页数未达上限时提交待追加的查询,需持有this
+         */
+        private void pump() {
+            while (end < 0 && owed > 0 && launched - finished < window * 2) {
+                owed--;
+                int index = launched++;
+                fetching.set(index);
+                if (launched >= announced) {
+                    // 片段总数需大于可能完成的片段数
+                    announced = Math.max(estimated, launched + window);
+                    int count = announced;
+                    writer.execute(() -> this.resize(count, false));
+                }
+                this.launch(index);
+            }
+        }
+
+        private void launch(int index) {
+            if (io == null) {
+                tasks.execute(() -> {
+                    List<T> data = ExportFacade.this.fetch(fetch, index, metrics);
+                    if (this.fetched(index, data)) {
+                        this.write(index, prepare(exportUtil, data, metrics));
                     }
-                    if (atomic.get().size() + data.size() > size) {
-                        atomic.get().close();
-                        i.getAndIncrement();
-                        atomic.set(exportUtil.build(exportUtil.buildSheet("第" + (i.get() + 1) + "页"),
-                                exportUtil.buildExcelField(clazz)));
+                });
+                return;
+            }
+            // 数据查询在虚拟线程中等待数据库,单元格格式化回到通道执行
+            io.execute(() -> {
+                List<T> data = ExportFacade.this.fetch(fetch, index, metrics);
+                if (this.fetched(index, data)) {
+                    tasks.execute(() -> this.write(index, prepare(exportUtil, data, metrics)));
+                }
+            });
+        }
+
+        /**
+         * 一页查询结束,更新总页数并追加查询
+         *
+         * @param data 查询结果,查询失败时为空(保留空白工作表,不再追加查询)
+         * @return 是否保留该页,总页数之外的页丢弃
+         */
+        private synchronized boolean fetched(int index, List<T> data) {
+            fetching.clear(index);
+            if (data != null && data.size() < job.getSize()) {
+                // 已保留的页之前的页都会保留;没有数据时也保留一个带标题的工作表
+                int pages = Math.max(Math.max(data.isEmpty() ? index : index + 1, kept + 1), 1);
+                end = end < 0 ? pages : Math.min(end, pages);
+            } else if (data != null && end < 0) {
+                owed++;
+            }
+            boolean keep = end < 0 || index < end;
+            if (keep) {
+                kept = Math.max(kept, index);
+            } else {
+                finished++;
+            }
+            this.pump();
+            if (end < 0 && fetching.isEmpty() && owed == 0) {
+                // 各查询链均因查询失败中止
+                end = launched;
+            }
+            int first = fetching.nextSetBit(0);
+            if (end >= 0 && !determined && (first < 0 || first >= end)) {
+                // 总页数之前的页均已查询结束,不会再出现更靠前的不足一页
+                determined = true;
+                int count = end;
+                writer.execute(() -> this.resize(count, true));
+            }
+            return keep;
+        }
+
+        private void write(int index, RowBuffer rows) {
+            writer.execute(() -> {
+                while (sheets.size() <= index) {
+                    sheets.add(exportUtil.createSheet(ExcelExportUtils.sheetName(sheets.size(), job.getSize())));
+                }
+                ExportFacade.this.write(sheets.get(index), rows, metrics, () -> {
+                    synchronized (this) {
+                        finished++;
+                        this.pump();
                     }
-                    atomic.get().append(data);
-                };
-                // 分批处理游标数据，每收集一部分进行处理,这样是会多几次循环操作 但是可以保证职责单一与良好的隔离性
-                this.handler(cursor, resultHandler, handlerSize);
-                write.close();
+                    schedule(exportUtil, job.getUserId(), handle, tasks, metrics, rows == null ? 0 : rows.size());
+                });
+            });
+        }
+
+        /**
+         * 改写片段总数,确定总数时若全部片段已完成则生成文件
+         */
+        private void resize(int count, boolean last) {
+            long start = System.nanoTime();
+            boolean done;
+            try {
+                done = ExcelExportUtils.ExcelTaskUtil.resizeExportFile(redisService, exportUtil.getFileName(),
+                        job.getUserId(), count);
             } catch (Exception e) {
-                log.error("数据导出失败：{},堆栈信息：{}", e.getMessage(), JSONObject.toJSON(e.getStackTrace()));
+                log.error("导出进度更新失败：{},{}", e.getMessage(), JSONObject.toJSONString(e.getStackTrace()));
+                handle.getFuture().completeExceptionally(e);
+                return;
             } finally {
-                try {
-                    if (cursor != null) { cursor.close(); }
-                } catch (IOException ignored) {}
-                if (ExcelExportUtils.ExcelTaskUtil.scheduleExportFile(redisService, exportUtil.getFileName(), userId)) {
-                    exportUtil.make();
+                metrics.record(ExportMetrics.Stage.REDIS, start);
+            }
+            if (last && done) {
+                make(exportUtil, handle, metrics);
+            }
+        }
+    }
+
+    /**
+     * 分页导出的检查点:工作表写入了数据并结束后登记,查询失败的页不登记,续传时重新导出;
+     * 登记时发现检查点已被其他实例接管则结束任务,不再生成文件
+     */
+    private class Checkpointing {
+        private final ExportCheckpointStore.Checkpoint record;
+        private final ExportCheckpoint sheets;
+        private final ExportHandle handle;
+
+        Checkpointing(ExportCheckpointStore.Checkpoint record, ExportCheckpoint sheets, ExportHandle handle) {
+            this.record = record;
+            this.sheets = sheets;
+            this.handle = handle;
+        }
+
+        long restoredRows() {
+            long rows = 0;
+            for (Integer index : sheets.getRestored()) {
+                rows += record.getSheets().getOrDefault(index, 0);
+            }
+            return rows;
+        }
+
+        ExportWriter.SheetWriter track(ExportWriter.SheetWriter sheet, int index) {
+            return new ExportWriter.SheetWriter() {
+                private boolean appended;
+
+                @Override
+                public int size() {
+                    return sheet.size();
+                }
+
+                @Override
+                public void append(RowBuffer rows) {
+                    sheet.append(rows);
+                    appended = true;
                 }
+
+                @Override
+                public void close() {
+                    sheet.close();
+                    if (appended && !exportCheckpointStore.done(record, index, sheet.size())) {
+                        handle.getFuture().completeExceptionally(new IllegalStateException("导出已被其他实例接管"));
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * 游标导出的行数进度,只在写入链中访问:按最小间隔上报已写入的行数,剩余行数随片段完成一起上报
+     */
+    private class CursorRows {
+        private final String fileName;
+        private final long userId;
+        private long pending;
+        private long reported = System.currentTimeMillis();
+
+        CursorRows(String fileName, long userId) {
+            this.fileName = fileName;
+            this.userId = userId;
+        }
+
+        void add(int rows) {
+            pending += rows;
+            long now = System.currentTimeMillis();
+            if (now - reported < rowsIntervalMillis) {
+                return;
             }
-            return null;
-        }));
+            reported = now;
+            try {
+                ExcelExportUtils.ExcelTaskUtil.addExportRows(redisService, fileName, userId, pending);
+                pending = 0;
+            } catch (Exception e) {
+                // 行数进度只用于展示,失败时留待下次上报
+                log.warn("导出行数上报失败：{}", e.getMessage());
+            }
+        }
     }
 
-    private <T> void handler(Cursor<T> cursor, Consumer<List<T>> handler, int size) {
+    /**
+     * 任务指定了优先级时使用指定值,否则按页数判断
+     *
+     * @param pages 页数,未知时传负数
+     */
+    private ExportScheduler.Priority priority(ExportJob<?> job, int pages) {
+        return job.getPriority() != null ? job.getPriority() : exportScheduler.priority(pages);
+    }
+
+    /**
+     * 记录一个片段执行完成,全部完成时生成文件
+     * <p>
+     * 虚拟线程模式下进度更新在虚拟线程中等待Redis,文件生成回到通道执行
+     *
+     * @param rows 片段写入的行数
+     */
+    private void schedule(ExportWriter exportUtil, long userId, ExportHandle handle, Executor tasks,
+                          ExportMetrics.Recorder metrics, long rows) {
+        Executor io = exportScheduler.io();
+        if (io == null) {
+            this.schedule(exportUtil, userId, handle, metrics, rows);
+            return;
+        }
+        io.execute(() -> {
+            try {
+                if (this.scheduleExportFile(exportUtil, userId, metrics, rows)) {
+                    tasks.execute(() -> this.make(exportUtil, handle, metrics));
+                }
+            } catch (Exception e) {
+                log.error("导出进度更新失败：{},{}", e.getMessage(), JSONObject.toJSONString(e.getStackTrace()));
+                handle.getFuture().completeExceptionally(e);
+            }
+        });
+    }
+
+    private void schedule(ExportWriter exportUtil, long userId, ExportHandle handle, ExportMetrics.Recorder metrics, long rows) {
+        if (this.scheduleExportFile(exportUtil, userId, metrics, rows)) {
+            this.make(exportUtil, handle, metrics);
+        }
+    }
+
+    private boolean scheduleExportFile(ExportWriter exportUtil, long userId, ExportMetrics.Recorder metrics, long rows) {
+        long start = System.nanoTime();
+        try {
+            return ExcelExportUtils.ExcelTaskUtil.scheduleExportFile(redisService, exportUtil.getFileName(), userId, rows);
+        } finally {
+            metrics.record(ExportMetrics.Stage.REDIS, start);
+        }
+    }
+
+    private void make(ExportWriter exportUtil, ExportHandle handle, ExportMetrics.Recorder metrics) {
+        if (handle.isDone()) {
+            return;
+        }
+        // 检查点已被其他实例接管时不再生成文件,以免与续传的实例同时改写同一个文件
+        if (!handle.owns()) {
+            handle.getFuture().completeExceptionally(new IllegalStateException("导出已被其他实例接管"));
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            String fileName = exportUtil.make();
+            metrics.record(ExportMetrics.Stage.MAKE, start);
+            handle.getFuture().complete(fileName);
+        } catch (RuntimeException e) {
+            handle.getFuture().completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private <T> void handler(Cursor<T> cursor, Consumer<List<T>> handler, int size, BooleanSupplier stop,
+                             ExportMetrics.Recorder metrics) {
         List<T> batch = new ArrayList<>(size);
+        // 读满一批的耗时计入数据查询
+        long start = System.nanoTime();
         for (T t : cursor) {
             batch.add(t);
             if (batch.size() == size) {
+                metrics.record(ExportMetrics.Stage.FETCH, start);
                 handler.accept(batch);
-                batch.clear();
+                if (stop.getAsBoolean()) return;
+                batch = new ArrayList<>(size);
+                start = System.nanoTime();
             }
         }
-        if (!batch.isEmpty()) handler.accept(batch);
+        if (!batch.isEmpty()) {
+            metrics.record(ExportMetrics.Stage.FETCH, start);
+            handler.accept(batch);
+        }
     }
 
     public interface DataProvider<T> {
         Page<T> page(Page<T> page);
     }
+
+    /**
+     * 总数估算-取代精确的COUNT(*),如表统计信息(information_schema.TABLES的TABLE_ROWS)或EXPLAIN的预估行数;
+     * 只用于自动分页导出展示进度与判断优先级,不决定页数
+     */
+    public interface TotalEstimator {
+        /**
+         * @return 预估条数,未知时返回负数
+         */
+        long estimate();
+    }
     public interface CursorProvider<T> {
         Cursor<T> cursor();
     }
+
+    /**
+     * 键集分页数据供给-按有索引的唯一键(如主键,或基准列与主键的组合)划分区间,
+     * 以 WHERE key &gt; ? ORDER BY key 代替 LIMIT offset,size，深分页时单页代价不随页深增长
+     *
+     * @param <T> 目标对象
+     * @param <K> 索引键类型
+     */
+    public interface KeysetProvider<T, K> {
+        /**
+         * 定位下一个区间的上界:从after之后(不含)按键升序数第size个键
+         *
+         * @param after 上一个区间的上界,为空代表从头开始
+         * @param size 区间条数
+         * @return 区间上界,剩余数据不足size条时返回空
+         */
+        K bound(K after, int size);
+
+        /**
+         * 查询区间(after, to]内的数据,键需唯一(可与主键组合),区间条数才不会超过size
+         *
+         * @param after 区间下界(不含),为空代表从头开始
+         * @param to 区间上界(含),为空代表直到末尾
+         * @param size 最多返回的条数
+         * @return 区间数据
+         */
+        List<T> range(K after, K to, int size);
+    }
 }
@@ -0,0 +1,47 @@
+package com.spring.facade;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 导出任务句柄-提交后立即返回，文件生成完成后结束
+ *
+ * @author Zhendong Zhou
+ */
+@Getter
+public class ExportHandle {
+    /**
+     * 最终生成的文件名,可用于下载与查询任务进度
+     */
+    private final String fileName;
+    private final long userId;
+    /**
+     * 文件生成结果
+     */
+    private final CompletableFuture<String> future = new CompletableFuture<>();
+    /**
+     * 是否仍持有导出,可续传的导出被其他实例接管后不再生成文件
+     */
+    @Getter(AccessLevel.NONE)
+    private volatile BooleanSupplier owner = () -> true;
+
+    ExportHandle(String fileName, long userId) {
+        this.fileName = fileName;
+        this.userId = userId;
+    }
+
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    void fence(BooleanSupplier owner) {
+        this.owner = owner;
+    }
+
+    boolean owns() {
+        return owner.getAsBoolean();
+    }
+}
@@ -0,0 +1,288 @@
+package com.spring.facade;
+
+import com.spring.util.ExcelExportUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 导出目录清理-后台定期回收{@link ExcelExportUtils#PUBLIC_EXPORT_DIR}下的文件
+ * <p>
+ * 每轮只遍历一次导出目录并读取各文件的属性：超出保留时长的文件、无任务引用的文件与长期未更新的.part临时文件直接删除(仍有检查点的续传文件除外，由检查点过期时一并删除)，
+ * 总大小超出上限时按最近下载时间从早到晚删除；之后移除文件已不存在的任务缓存，并清理遗留的SXSSF临时文件
+ * <p>
+ * 最近下载时间记录在文件的访问时间上({@link #touch(File)})，多个实例共用存储目录时同样有效
+ *
+ * @author Zhendong Zhou
+ */
+@Slf4j
+@Component
+public class ExportJanitor {
+    private static final String PART = ".part";
+    private static final String RESTORE = ".restore";
+    private static final String SXSSF_PREFIX = "poi-sxssf-";
+
+    private final RedisTemplate<String, Object> redisService;
+
+    @Value("${export.janitor.max-age-seconds:86500}")
+    private long maxAgeSeconds = 86500; // 文件保留时长,与任务缓存的过期时间一致
+    @Value("${export.janitor.max-bytes:10737418240}")
+    private long maxBytes = 10L << 30; // 导出目录的总大小上限
+    @Value("${export.janitor.temp-age-seconds:21600}")
+    private long tempAgeSeconds = 21600; // 临时文件超过该时长未更新视为遗留
+    @Value("${export.janitor.orphan-grace-seconds:3600}")
+    private long orphanGraceSeconds = 3600; // 无任务引用的文件与未生成文件的任务在该时长后清理
+
+    /**
+     * 统计
+     */
+    private volatile long bytes;
+    private final LongAdder deletedFiles = new LongAdder();
+    private final LongAdder deletedBytes = new LongAdder();
+
+    @Autowired
+    public ExportJanitor(RedisTemplate<String, Object> redisService) {
+        this.redisService = redisService;
+    }
+
+    /**
+     * 记录文件被下载,只更新访问时间,修改时间不变(下载的ETag依赖修改时间)
+     *
+     * @param file 导出文件
+     */
+    public void touch(File file) {
+        try {
+            Files.setAttribute(file.toPath(), "lastAccessTime", FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            log.warn("记录文件下载时间失败:{}", e.getMessage());
+        }
+    }
+
+    @Scheduled(initialDelayString = "${export.janitor.interval-ms:300000}", fixedDelayString = "${export.janitor.interval-ms:300000}")
+    public void clean() {
+        long now = System.currentTimeMillis();
+        // 先读任务再遍历目录,遍历时新建的文件必然已登记任务
+        Map<Long, Map<String, String>> tasks;
+        try {
+            tasks = ExcelExportUtils.ExcelTaskUtil.scanExportTasks(redisService);
+        } catch (RuntimeException e) {
+            // 缓存不可用时只按时长与总大小清理
+            log.warn("读取导出任务失败:{}", e.getMessage());
+            tasks = null;
+        }
+        Set<String> referenced = new HashSet<>();
+        if (tasks != null) {
+            tasks.values().forEach(files -> referenced.addAll(files.keySet()));
+        }
+        Set<String> present = new HashSet<>();
+        long total = this.sweep(now, tasks == null ? null : referenced, present);
+        if (tasks != null) {
+            this.reconcile(now, tasks, present);
+        }
+        this.sweepTemp(now);
+        bytes = total;
+    }
+
+    /**
+     * 遍历导出目录,按保留时长、任务引用与总大小删除文件
+     *
+     * @param referenced 被任务引用的文件名,为空时不按引用删除
+     * @param present 输出:清理后仍存在的文件名
+     * @return 清理后的目录总大小
+     */
+    private long sweep(long now, Set<String> referenced, Set<String> present) {
+        Path dir = Paths.get(ExcelExportUtils.PUBLIC_EXPORT_DIR);
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        List<Candidate> candidates = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                if (!attrs.isRegularFile()) {
+                    continue;
+                }
+                String name = path.getFileName().toString();
+                long size = attrs.size();
+                long age = now - attrs.lastModifiedTime().toMillis();
+                if (name.endsWith(PART) || name.endsWith(PART + RESTORE)) {
+                    // 生成中的文件计入总大小但不参与淘汰
+                    if (age > tempAgeSeconds * 1000 && !ExportCheckpointStore.exists(exported(name))
+                            && this.delete(path, size, "遗留的临时文件")) {
+                        continue;
+                    }
+                    total += size;
+                    continue;
+                }
+                if (age > maxAgeSeconds * 1000 && this.delete(path, size, "超出保留时长")) {
+                    continue;
+                }
+                if (referenced != null && !referenced.contains(name) && age > orphanGraceSeconds * 1000
+                        && this.delete(path, size, "无任务引用")) {
+                    continue;
+                }
+                total += size;
+                present.add(name);
+                long used = Math.max(attrs.lastModifiedTime().toMillis(), attrs.lastAccessTime().toMillis());
+                candidates.add(new Candidate(path, name, size, used));
+            }
+        } catch (IOException e) {
+            log.warn("遍历导出目录失败:{}", e.getMessage());
+        }
+        if (total > maxBytes) {
+            // 总大小超出上限时从最久未下载的文件开始删除
+            candidates.sort(Comparator.comparingLong(candidate -> candidate.used));
+            for (Candidate candidate : candidates) {
+                if (total <= maxBytes) {
+                    break;
+                }
+                if (this.delete(candidate.path, candidate.size, "超出目录总大小")) {
+                    total -= candidate.size;
+                    present.remove(candidate.name);
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 移除文件已不存在的任务:已完成的任务立即移除,未完成的任务按文件名中的创建时间在宽限期后移除
+     */
+    private void reconcile(long now, Map<Long, Map<String, String>> tasks, Set<String> present) {
+        tasks.forEach((userId, files) -> files.forEach((fileName, progress) -> {
+            if (present.contains(fileName)) {
+                return;
+            }
+            long created = created(fileName);
+            // 最后一个片段完成后才生成文件,刚完成的任务文件可能仍在写入
+            if (created < 0 || now - created <= orphanGraceSeconds * 1000) {
+                return;
+            }
+            if (ExcelExportUtils.ExcelTaskUtil.isFinished(progress) || now - created > maxAgeSeconds * 1000) {
+                ExcelExportUtils.ExcelTaskUtil.removeCache(redisService, fileName, userId);
+                log.info("移除文件已不存在的导出任务:userId={},fileName={}", userId, fileName);
+            }
+        }));
+    }
+
+    /**
+     * 删除遗留的SXSSF临时文件,正常导出在生成后会自行删除,进程异常退出时才会遗留
+     */
+    private void sweepTemp(long now) {
+        Path dir = Paths.get(System.getProperty("java.io.tmpdir"), "poifiles");
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SXSSF_PREFIX + "*")) {
+            for (Path path : stream) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                if (attrs.isRegularFile() && now - attrs.lastModifiedTime().toMillis() > tempAgeSeconds * 1000) {
+                    this.delete(path, attrs.size(), "遗留的SXSSF临时文件");
+                }
+            }
+        } catch (IOException e) {
+            log.warn("遍历SXSSF临时目录失败:{}", e.getMessage());
+        }
+    }
+
+    private boolean delete(Path path, long size, String reason) {
+        try {
+            if (Files.deleteIfExists(path)) {
+                deletedFiles.increment();
+                deletedBytes.add(size);
+                log.info("清理导出文件({}):{}", reason, path.getFileName());
+            }
+            return true;
+        } catch (IOException e) {
+            log.warn("清理导出文件失败:{},{}", path, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 临时文件对应的导出文件名
+     */
+    private static String exported(String name) {
+        String exported = name.endsWith(RESTORE) ? name.substring(0, name.length() - RESTORE.length()) : name;
+        return exported.substring(0, exported.length() - PART.length());
+    }
+
+    /**
+     * 文件名中的创建时间,格式为 模块名-毫秒时间戳.后缀,无法解析时返回-1
+     */
+    private static long created(String fileName) {
+        int start = fileName.lastIndexOf('-');
+        int end = fileName.indexOf('.', start + 1);
+        if (start < 0 || end < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(fileName.substring(start + 1, end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 最近一轮清理后导出目录的总大小
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getDeletedFiles() {
+        return deletedFiles.sum();
+    }
+
+    public long getDeletedBytes() {
+        return deletedBytes.sum();
+    }
+
+    private static class Candidate {
+        private final Path path;
+        private final String name;
+        private final long size;
+        /**
+         * 最近下载时间,未下载过时为生成时间
+         */
+        private final long used;
+
+        Candidate(Path path, String name, long size, long used) {
+            this.path = path;
+            this.name = name;
+            this.size = size;
+            this.used = used;
+        }
+    }
+}
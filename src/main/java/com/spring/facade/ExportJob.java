@@ -0,0 +1,125 @@
+package com.spring.facade;
+
+import com.spring.util.ExcelExportUtils;
+import com.spring.util.ExportFormat;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 导出任务-单次导出的全部参数，创建后不可变，提交给{@link ExportFacade#submit(ExportJob)}执行
+ * <p>
+ * 设置了游标供给时按游标导出，设置了键集供给时按索引键区间分页导出，否则按分页导出
+ *
+ * @author Zhendong Zhou
+ */
+@Getter
+@Builder
+public class ExportJob<T> {
+    /**
+     * 文件名
+     */
+    private final String fileName;
+    /**
+     * 目标类-存在属性必须标注了Excel注解
+     */
+    private final Class<T> clazz;
+    /**
+     * 用户ID
+     */
+    private final long userId;
+
+    /**
+     * 文件格式
+     */
+    @Builder.Default
+    private final ExportFormat format = ExportFormat.XLSX;
+
+    /**
+     * 缓存键-描述本次导出的查询条件(及数据版本),为空时不缓存;
+     * 同一用户在同一时间段内以相同缓存键提交的导出只执行一次,见{@link ExportResultCache}
+     */
+    private final String cacheKey;
+
+    /**
+     * 调度优先级,为空时按页数判断(游标导出为普通优先级)
+     */
+    private final ExportScheduler.Priority priority;
+
+    /**
+     * 可续传导出的名称,对应一个{@link ResumableExport};设置后xlsx分页导出的每个工作表结束时记录检查点,
+     * 节点重启后由{@link ExportRecovery}重新构建任务并只导出缺失的页
+     */
+    private final String resumable;
+    /**
+     * 重新构建任务所需的参数(如查询条件),由{@link ResumableExport#rebuild(long, String)}解析
+     */
+    private final String resumeArgs;
+
+    /**
+     * 分页数据供给
+     */
+    private final ExportFacade.DataProvider<T> dataProvider;
+    /**
+     * 总页数,需大于0
+     */
+    @Builder.Default
+    private final int pages = 1;
+    /**
+     * 每页条数，同时也是每个工作表的最大行数
+     */
+    @Builder.Default
+    private final int size = ExcelExportUtils.MAX_EXPORT_COUNT;
+    /**
+     * 是否自动分页-不预先查询总数,边查询边由不足一页的查询结果确定页数,忽略pages;
+     * 可续传的导出需要预先确定页数,仍先查询总数
+     */
+    private final boolean auto;
+    /**
+     * 自动分页时的总数估算,只用于展示进度与判断优先级,为空时不估算
+     */
+    private final ExportFacade.TotalEstimator estimator;
+
+    /**
+     * 键集分页数据供给,设置后按索引键区间分页,总页数由区间划分得出
+     */
+    private final ExportFacade.KeysetProvider<T, ?> keysetProvider;
+
+    /**
+     * 游标数据供给
+     */
+    private final ExportFacade.CursorProvider<T> cursorProvider;
+    /**
+     * 游标数据的分批处理器（可以用以拼接第三方数据）
+     */
+    private final Consumer<List<T>> handler;
+    /**
+     * 游标数据每N条进行一次截片处理
+     */
+    @Builder.Default
+    private final int handlerSize = 1000;
+    /**
+     * 游标数据并行处理的线程数,同时在途的批次不超过其两倍
+     */
+    @Builder.Default
+    private final int workers = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 创建任务构建器
+     *
+     * @param fileName 文件名
+     * @param clazz 目标类
+     * @param userId 用户ID
+     * @param <T> 目标对象
+     * @return 构建器
+     */
+    public static <T> ExportJobBuilder<T> of(String fileName, Class<T> clazz, long userId) {
+        return ExportJob.<T>builder().fileName(fileName).clazz(clazz).userId(userId);
+    }
+
+    public boolean isCursor() {
+        return cursorProvider != null;
+    }
+}
@@ -0,0 +1,199 @@
+package com.spring.facade;
+
+import com.spring.util.ExcelExportUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 导出指标-经由Micrometer暴露(Actuator的/actuator/metrics)
+ * <p>
+ * 各阶段耗时记录在export.stage计时器中，以实体类(entity)、导出方式(mode)、格式(format)与阶段(stage)区分；
+ * 每个导出结束时记录总耗时、行数、文件字节数与每秒行数。计时以页或批为单位，不在逐行写入中计时，
+ * 同一组标签的计量器只在第一次导出时创建，之后导出直接复用
+ * <p>
+ * 调度器的排队与执行任务数、执行中的导出数与结果缓存的条目数与字节数以Gauge暴露
+ *
+ * @author Zhendong Zhou
+ */
+@Component
+public class ExportMetrics {
+    private final MeterRegistry registry;
+
+    @Value("${export.metrics.histogram:true}")
+    private boolean histogram = true; // 输出直方图分桶,用于按分位数聚合
+
+    private final AtomicInteger active = new AtomicInteger();
+    /**
+     * 按标签缓存的计量器
+     */
+    private final Map<Tags, Meters> meters = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ExportMetrics(MeterRegistry registry, ExportScheduler exportScheduler, ExportResultCache exportResultCache) {
+        this.registry = registry;
+        Gauge.builder("export.active", active, AtomicInteger::get).description("执行中的导出数").register(registry);
+        Gauge.builder("export.scheduler.queued", exportScheduler, ExportScheduler::getQueued)
+                .description("排队中的任务数").register(registry);
+        Gauge.builder("export.scheduler.reserved", exportScheduler, ExportScheduler::getReserved)
+                .description("预留且尚未提交的任务数").register(registry);
+        Gauge.builder("export.scheduler.running", exportScheduler, ExportScheduler::getRunning)
+                .description("执行中的任务数").register(registry);
+        Gauge.builder("export.scheduler.users", exportScheduler, ExportScheduler::getUsers)
+                .description("有排队或执行中任务的用户数").register(registry);
+        FunctionCounter.builder("export.scheduler.rejected", exportScheduler, ExportScheduler::getRejected)
+                .description("队列已满被拒绝的导出数").register(registry);
+        Gauge.builder("export.cache.size", exportResultCache, ExportResultCache::size)
+                .description("结果缓存的条目数").register(registry);
+        Gauge.builder("export.cache.bytes", exportResultCache, ExportResultCache::getBytes)
+                .description("结果缓存已生成文件的字节数").register(registry);
+    }
+
+    /**
+     * 导出阶段
+     */
+    public enum Stage {
+        /**
+         * 统计总数或定位键集区间
+         */
+        COUNT,
+        /**
+         * 查询一页数据,游标方式为读取一批数据
+         */
+        FETCH,
+        /**
+         * 游标数据的额外处理
+         */
+        HANDLER,
+        /**
+         * 取值与单元格格式化
+         */
+        PREPARE,
+        /**
+         * 写入工作表
+         */
+        APPEND,
+        /**
+         * 结束工作表(合并与压缩写入)
+         */
+        CLOSE,
+        /**
+         * 生成文件
+         */
+        MAKE,
+        /**
+         * 任务进度的Redis读写
+         */
+        REDIS
+    }
+
+    /**
+     * 开始记录一个导出
+     *
+     * @param job 导出任务
+     * @param mode 导出方式:page、keyset、cursor
+     * @return 本次导出的记录器
+     */
+    public Recorder start(ExportJob<?> job, String mode) {
+        Tags tags = Tags.of("entity", job.getClazz().getSimpleName(), "mode", mode,
+                "format", job.getFormat().name().toLowerCase(Locale.ROOT));
+        active.incrementAndGet();
+        return new Recorder(meters.computeIfAbsent(tags, Meters::new));
+    }
+
+    /**
+     * 一组标签下的计量器
+     */
+    private class Meters {
+        private final Timer[] stages = new Timer[Stage.values().length];
+        private final Timer duration;
+        private final DistributionSummary rows;
+        private final DistributionSummary bytes;
+        private final DistributionSummary throughput;
+        private final Counter failed;
+
+        Meters(Tags tags) {
+            for (Stage stage : Stage.values()) {
+                stages[stage.ordinal()] = Timer.builder("export.stage")
+                        .tags(tags).tag("stage", stage.name().toLowerCase(Locale.ROOT))
+                        .publishPercentileHistogram(histogram).register(registry);
+            }
+            this.duration = Timer.builder("export.duration").description("导出总耗时")
+                    .tags(tags).publishPercentileHistogram(histogram).register(registry);
+            this.rows = DistributionSummary.builder("export.rows").description("每个导出的行数")
+                    .tags(tags).register(registry);
+            this.bytes = DistributionSummary.builder("export.bytes").description("每个导出的文件字节数")
+                    .baseUnit("bytes").tags(tags).register(registry);
+            this.throughput = DistributionSummary.builder("export.throughput").description("每个导出的每秒行数")
+                    .tags(tags).register(registry);
+            this.failed = Counter.builder("export.failed").description("失败的导出数").tags(tags).register(registry);
+        }
+    }
+
+    /**
+     * 单个导出的记录器,各方法可在任意线程中调用
+     */
+    public class Recorder {
+        private final Meters meters;
+        private final long started = System.nanoTime();
+        private final LongAdder rows = new LongAdder();
+        private final AtomicInteger finished = new AtomicInteger();
+
+        Recorder(Meters meters) {
+            this.meters = meters;
+        }
+
+        /**
+         * 记录一个阶段从start(System.nanoTime())开始到现在的耗时
+         */
+        public void record(Stage stage, long start) {
+            meters.stages[stage.ordinal()].record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * 累计写入的行数
+         */
+        public void rows(int count) {
+            rows.add(count);
+        }
+
+        /**
+         * 导出结束,只有第一次调用生效
+         *
+         * @param fileName 生成的文件名,失败时为空
+         */
+        public void finish(String fileName) {
+            if (!finished.compareAndSet(0, 1)) {
+                return;
+            }
+            active.decrementAndGet();
+            long nanos = System.nanoTime() - started;
+            meters.duration.record(nanos, TimeUnit.NANOSECONDS);
+            if (fileName == null) {
+                meters.failed.increment();
+                return;
+            }
+            long count = rows.sum();
+            meters.rows.record(count);
+            meters.bytes.record(new File(ExcelExportUtils.PUBLIC_EXPORT_DIR + fileName).length());
+            if (nanos > 0) {
+                meters.throughput.record(count * 1e9 / nanos);
+            }
+        }
+    }
+}
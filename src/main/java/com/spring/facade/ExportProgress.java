@@ -0,0 +1,309 @@
+package com.spring.facade;
+
+import com.alibaba.fastjson.JSONObject;
+import com.spring.util.ExcelExportUtils;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 导出进度推送-以SSE向用户推送任务进度的变更
+ * <p>
+ * 进度变更由{@link ExcelExportUtils.ExcelTaskUtil}在登记任务、完成片段(与推进进度的同一脚本中)与移除任务时发布到
+ * {@link ExcelExportUtils.ExcelTaskUtil#PROGRESS_CHANNEL}频道，每个实例订阅该频道并转发给连接在本实例上的用户，
+ * 导出在哪个实例上执行都不影响推送
+ * <p>
+ * 轮询作为后备：任务列表在本地缓存，期间的进度变更直接更新缓存，同一用户的频繁轮询不再每次读取Redis；
+ * 订阅正常时缓存由进度消息保持最新，可以长时间保留，只在过期或订阅恢复(期间可能漏收消息)后重新读取；
+ * 订阅是否正常由本实例定期发布、并应能收到的探测消息判断，收不到时缓存只保留一小段时间
+ *
+ * @author Zhendong Zhou
+ */
+@Slf4j
+@Component
+public class ExportProgress implements MessageListener, InitializingBean, DisposableBean {
+    private static final RedisSerializer<String> STRING = RedisSerializer.string();
+
+    private final RedisTemplate<String, Object> redisService;
+
+    @Value("${export.progress.cache-millis:1000}")
+    private long cacheMillis = 1000; // 订阅中断时任务列表的本地缓存时长
+    @Value("${export.progress.live-cache-millis:300000}")
+    private long liveCacheMillis = 300000; // 订阅正常时任务列表的本地缓存时长
+    @Value("${export.progress.heartbeat-ms:15000}")
+    private long heartbeatMillis = 15000;
+    @Value("${export.progress.sse-timeout-ms:1800000}")
+    private long sseTimeoutMillis = 1800000; // 推送连接的超时时间,超时后由客户端重连
+
+    /**
+     * 用户ID -> 本地缓存的任务列表
+     */
+    private final Map<Long, Snapshot> snapshots = new ConcurrentHashMap<>();
+    /**
+     * 用户ID -> 本实例上的推送连接
+     */
+    private final Map<Long, Set<SseEmitter>> emitters = new ConcurrentHashMap<>();
+    private RedisMessageListenerContainer container;
+    private ExecutorService dispatcher;
+    /**
+     * 本实例的探测消息标识
+     */
+    private final String instance = UUID.randomUUID().toString();
+    /**
+     * 最近一次收到本实例探测消息的时间
+     */
+    private volatile long pinged;
+
+    @Autowired
+    public ExportProgress(RedisTemplate<String, Object> redisService) {
+        this.redisService = redisService;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        RedisConnectionFactory connectionFactory = redisService.getConnectionFactory();
+        if (connectionFactory == null) {
+            log.warn("缓存服务未配置连接,导出进度只支持轮询");
+            return;
+        }
+        // 进度消息按到达顺序在单个线程中转发
+        dispatcher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "export-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.setTaskExecutor(dispatcher);
+        container.addMessageListener(this, new ChannelTopic(ExcelExportUtils.ExcelTaskUtil.PROGRESS_CHANNEL));
+        container.afterPropertiesSet();
+        container.start();
+        this.ping();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (container != null) {
+            container.destroy();
+            dispatcher.shutdownNow();
+        }
+        emitters.values().forEach(set -> set.forEach(SseEmitter::complete));
+    }
+
+    /**
+     * 获取用户下全部任务的进度,本地缓存过期时才读取Redis
+     *
+     * @param userId 用户ID
+     * @return 任务列表(文件名 -> 已完成片段数/片段总数)
+     */
+    public Map<Object, Object> tasks(long userId) {
+        Map<Object, Object> tasks = new HashMap<>();
+        this.snapshot(userId).tasks.forEach((fileName, task) -> tasks.put(fileName, task.getProgress()));
+        return tasks;
+    }
+
+    /**
+     * 订阅用户的任务进度:连接后先推送一次全部任务(tasks事件),之后每次变更推送该任务(progress事件)
+     *
+     * @param userId 用户ID
+     * @return 推送连接
+     */
+    public SseEmitter subscribe(long userId) {
+        SseEmitter emitter = new SseEmitter(sseTimeoutMillis);
+        emitters.compute(userId, (k, connections) -> {
+            Set<SseEmitter> set = connections == null ? new CopyOnWriteArraySet<>() : connections;
+            set.add(emitter);
+            return set;
+        });
+        Runnable remove = () -> this.remove(userId, emitter);
+        emitter.onCompletion(remove);
+        emitter.onTimeout(remove);
+        emitter.onError(e -> remove.run());
+        try {
+            emitter.send(SseEmitter.event().name("tasks").data(new ArrayList<>(this.snapshot(userId).tasks.values())));
+        } catch (IOException | RuntimeException e) {
+            emitter.completeWithError(e);
+        }
+        return emitter;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        Task task;
+        long userId;
+        try {
+            JSONObject body = JSONObject.parseObject(new String(message.getBody(), StandardCharsets.UTF_8));
+            if (body.containsKey("ping")) {
+                this.pinged(body.getString("ping"));
+                return;
+            }
+            userId = body.getLongValue("userId");
+            task = new Task(body.getString("fileName"), body.getString("progress"), body.getLongValue("rows"));
+        } catch (RuntimeException e) {
+            log.warn("导出进度消息解析失败:{}", e.getMessage());
+            return;
+        }
+        // 与读取缓存互斥,读取期间到达的消息应用到新读取的任务列表上
+        snapshots.computeIfPresent(userId, (k, snapshot) -> {
+            if (task.isRemoved()) {
+                snapshot.tasks.remove(task.getFileName());
+            } else {
+                snapshot.tasks.put(task.getFileName(), task);
+            }
+            return snapshot;
+        });
+        Set<SseEmitter> connections = emitters.get(userId);
+        if (connections != null) {
+            connections.forEach(emitter -> this.send(userId, emitter, SseEmitter.event().name("progress").data(task)));
+        }
+    }
+
+    /**
+     * 定期发送心跳,避免空闲连接被代理断开,同时发布探测消息并清理过期的本地缓存
+     */
+    @Scheduled(fixedDelayString = "${export.progress.heartbeat-ms:15000}")
+    public void heartbeat() {
+        this.ping();
+        long now = System.currentTimeMillis();
+        long ttl = this.ttl(now);
+        snapshots.values().removeIf(snapshot -> now - snapshot.loaded > ttl);
+        emitters.forEach((userId, connections) ->
+                connections.forEach(emitter -> this.send(userId, emitter, SseEmitter.event().comment("heartbeat"))));
+    }
+
+    private void ping() {
+        if (container == null) {
+            return;
+        }
+        byte[] channel = STRING.serialize(ExcelExportUtils.ExcelTaskUtil.PROGRESS_CHANNEL);
+        byte[] body = STRING.serialize("{\"ping\":\"" + instance + "\"}");
+        try {
+            redisService.execute((RedisCallback<Long>) connection -> connection.publish(channel, body));
+        } catch (RuntimeException e) {
+            log.warn("导出进度探测消息发布失败:{}", e.getMessage());
+        }
+    }
+
+    private void pinged(String from) {
+        if (!instance.equals(from)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (!this.live(now)) {
+            // 订阅恢复,中断期间的进度消息可能已漏收
+            snapshots.clear();
+        }
+        pinged = now;
+    }
+
+    /**
+     * 订阅是否正常:最近两个心跳周期内收到过本实例的探测消息
+     */
+    private boolean live(long now) {
+        return container != null && now - pinged <= heartbeatMillis * 2;
+    }
+
+    private long ttl(long now) {
+        return this.live(now) ? liveCacheMillis : cacheMillis;
+    }
+
+    private void send(long userId, SseEmitter emitter, SseEmitter.SseEventBuilder event) {
+        try {
+            emitter.send(event);
+        } catch (IOException | RuntimeException e) {
+            // 连接已断开
+            this.remove(userId, emitter);
+        }
+    }
+
+    private void remove(long userId, SseEmitter emitter) {
+        emitters.computeIfPresent(userId, (k, connections) -> {
+            connections.remove(emitter);
+            return connections.isEmpty() ? null : connections;
+        });
+    }
+
+    private Snapshot snapshot(long userId) {
+        long now = System.currentTimeMillis();
+        long ttl = this.ttl(now);
+        return snapshots.compute(userId, (k, snapshot) -> {
+            if (snapshot != null && now - snapshot.loaded <= ttl) {
+                return snapshot;
+            }
+            Map<Object, Object> progress = ExcelExportUtils.ExcelTaskUtil.getExportTask(redisService, userId);
+            Map<String, Long> rows = ExcelExportUtils.ExcelTaskUtil.getExportRows(redisService, userId);
+            Snapshot loaded = new Snapshot(now);
+            progress.forEach((fileName, value) -> loaded.tasks.put((String) fileName,
+                    new Task((String) fileName, (String) value, rows.getOrDefault(fileName, 0L))));
+            return loaded;
+        });
+    }
+
+    /**
+     * 任务进度
+     */
+    @Getter
+    public static class Task {
+        private final String fileName;
+        /**
+         * 已完成片段数/片段总数,导入任务为 已处理行数/总行数
+         */
+        private final String progress;
+        /**
+         * 已写入行数
+         */
+        private final long rows;
+
+        Task(String fileName, String progress, long rows) {
+            this.fileName = fileName;
+            this.progress = progress;
+            this.rows = rows;
+        }
+
+        public boolean isFinished() {
+            return ExcelExportUtils.ExcelTaskUtil.isFinished(progress);
+        }
+
+        /**
+         * 任务已被移除(过期、失败或文件已被清理)
+         */
+        public boolean isRemoved() {
+            return progress == null;
+        }
+    }
+
+    private static class Snapshot {
+        private final long loaded;
+        private final Map<String, Task> tasks = new ConcurrentHashMap<>();
+
+        Snapshot(long loaded) {
+            this.loaded = loaded;
+        }
+    }
+}
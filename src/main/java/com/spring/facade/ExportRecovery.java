@@ -0,0 +1,106 @@
+package com.spring.facade;
+
+import com.spring.util.ExcelExportUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 导出续传-启动完成后与之后定期抢占中断的可续传导出，由对应的{@link ResumableExport}重新构建任务后续传
+ * <p>
+ * 任务进度已不存在(用户已删除或已过期)的检查点直接放弃；重新构建或提交失败的检查点释放给其他实例
+ * <p>
+ * 抢占与续传在专属线程中执行，不占用定时任务线程，上一轮未结束时跳过本轮
+ *
+ * @author Zhendong Zhou
+ */
+@Slf4j
+@Component
+public class ExportRecovery implements DisposableBean {
+    private final ExportFacade exportFacade;
+    private final ExportCheckpointStore exportCheckpointStore;
+    private final RedisTemplate<String, Object> redisService;
+    /**
+     * 名称 -> 可续传的导出
+     */
+    private final Map<String, ResumableExport> resumables = new HashMap<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "export-recovery");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Autowired
+    public ExportRecovery(@Lazy ExportFacade exportFacade, ExportCheckpointStore exportCheckpointStore,
+                          RedisTemplate<String, Object> redisService, List<ResumableExport> resumables) {
+        this.exportFacade = exportFacade;
+        this.exportCheckpointStore = exportCheckpointStore;
+        this.redisService = redisService;
+        resumables.forEach(resumable -> this.resumables.put(resumable.name(), resumable));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void ready() {
+        this.recover();
+    }
+
+    /**
+     * 续传抢占到的检查点,所属实例存活标记过期后才能抢占,因此启动时可能要等到之后的某一轮
+     */
+    @Scheduled(fixedDelayString = "${export.checkpoint.recover-interval-ms:60000}", initialDelayString = "${export.checkpoint.recover-interval-ms:60000}")
+    public void recover() {
+        if (resumables.isEmpty() || !running.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                this.doRecover();
+            } finally {
+                running.set(false);
+            }
+        });
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    private void doRecover() {
+        List<ExportCheckpointStore.Checkpoint> claimed;
+        try {
+            claimed = exportCheckpointStore.claim(resumables.keySet());
+        } catch (RuntimeException e) {
+            log.warn("抢占导出检查点失败:{}", e.getMessage());
+            return;
+        }
+        for (ExportCheckpointStore.Checkpoint checkpoint : claimed) {
+            if (!ExcelExportUtils.ExcelTaskUtil.verifyTaskExist(redisService, checkpoint.getFileName(), checkpoint.getUserId())) {
+                exportCheckpointStore.discard(checkpoint);
+                continue;
+            }
+            try {
+                ExportJob<?> job = resumables.get(checkpoint.getResumable()).rebuild(checkpoint.getUserId(), checkpoint.getResumeArgs());
+                exportFacade.resume(job, checkpoint);
+                log.info("续传导出:{},已恢复{}页/共{}页", checkpoint.getFileName(), checkpoint.getSheets().size(), checkpoint.getPages());
+            } catch (RuntimeException e) {
+                log.error("续传导出失败:{}", checkpoint.getFileName(), e);
+                exportCheckpointStore.release(checkpoint);
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.spring.facade;
+
+import com.spring.util.ExcelExportUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * 导出结果缓存-相同内容的导出只执行一次
+ * <p>
+ * 以 用户、实体类、文件名、文件格式、任务的缓存键({@link ExportJob#getCacheKey()})与时间段 的摘要标识一次导出，
+ * 重复提交时直接返回已生成或生成中的任务句柄；条目过期后失效，引用的文件总大小超出预算时按最久未使用淘汰条目
+ * <p>
+ * 淘汰只移除缓存，不删除文件：文件仍属于用户的导出任务，由{@link ExportJanitor}按导出目录的统一预算与任务周期清理
+ *
+ * @author Zhendong Zhou
+ */
+@Slf4j
+@Component
+public class ExportResultCache {
+    @Value("${export.cache.bucket-seconds:300}")
+    private long bucketSeconds = 300; // 时间段长度,同一时间段内的相同导出视为同一份数据
+    @Value("${export.cache.ttl-seconds:600}")
+    private long ttlSeconds = 600; // 条目有效期
+    @Value("${export.cache.max-bytes:1073741824}")
+    private long maxBytes = 1L << 30; // 缓存条目引用的文件总大小上限
+
+    /**
+     * 按访问顺序排列,由this保护
+     */
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    /**
+     * 返回相同导出的任务句柄,不存在时执行start开始导出
+     *
+     * @param job 导出任务,未设置缓存键时直接执行
+     * @param start 开始导出
+     * @return 任务句柄
+     */
+    public ExportHandle computeIfAbsent(ExportJob<?> job, Supplier<ExportHandle> start) {
+        if (job.getCacheKey() == null) {
+            return start.get();
+        }
+        String key = this.key(job);
+        Entry entry;
+        boolean owner = false;
+        synchronized (this) {
+            this.expire();
+            entry = entries.get(key);
+            if (entry != null && entry.isMissing()) {
+                this.remove(key, entry);
+                entry = null;
+            }
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+                owner = true;
+            }
+        }
+        if (!owner) {
+            log.info("导出命中缓存:{}", key);
+            try {
+                return entry.handle.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        ExportHandle handle;
+        try {
+            handle = start.get();
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                this.remove(key, entry);
+            }
+            entry.handle.completeExceptionally(e);
+            throw e;
+        }
+        entry.handle.complete(handle);
+        Entry started = entry;
+        handle.getFuture().whenComplete((fileName, e) -> this.completed(key, started, fileName, e));
+        return handle;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    private synchronized void completed(String key, Entry entry, String fileName, Throwable e) {
+        if (entries.get(key) != entry) {
+            return;
+        }
+        if (e != null) {
+            // 失败的导出不缓存,下次重新执行
+            this.remove(key, entry);
+            return;
+        }
+        entry.file = new File(ExcelExportUtils.PUBLIC_EXPORT_DIR + fileName);
+        entry.bytes = entry.file.length();
+        bytes += entry.bytes;
+        // 超出预算时从最久未使用的条目开始淘汰,生成中的条目不淘汰;文件由清理任务处理
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Entry eldest = iterator.next().getValue();
+            if (eldest.file == null || eldest == entry) {
+                continue;
+            }
+            iterator.remove();
+            bytes -= eldest.bytes;
+        }
+    }
+
+    /**
+     * 移除过期条目,只移除缓存,文件仍按正常的任务周期保留
+     */
+    private void expire() {
+        long now = System.currentTimeMillis();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (now - entry.created > ttlSeconds * 1000) {
+                iterator.remove();
+                bytes -= entry.bytes;
+            }
+        }
+    }
+
+    private void remove(String key, Entry entry) {
+        if (entries.remove(key, entry)) {
+            bytes -= entry.bytes;
+        }
+    }
+
+    /**
+     * 导出内容的摘要标识
+     */
+    private String key(ExportJob<?> job) {
+        long bucket = System.currentTimeMillis() / (bucketSeconds * 1000);
+        String source = job.getUserId() + "|" + job.getClazz().getName() + "|" + job.getFormat()
+                + "|" + job.getFileName() + "|" + job.getCacheKey() + "|" + bucket;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Entry {
+        private final long created = System.currentTimeMillis();
+        /**
+         * 首次提交的任务句柄,开始导出前由其他提交等待
+         */
+        private final CompletableFuture<ExportHandle> handle = new CompletableFuture<>();
+        /**
+         * 生成完成后的文件与大小
+         */
+        private File file;
+        private long bytes;
+
+        /**
+         * 已生成的文件是否已被清理
+         */
+        boolean isMissing() {
+            return file != null && !file.exists();
+        }
+    }
+}
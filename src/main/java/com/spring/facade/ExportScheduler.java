@@ -0,0 +1,515 @@
+package com.spring.facade;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 导出调度器-所有导出任务经由此处进入线程池
+ * <p>
+ * 每个导出对应一条通道({@link Lane})，调度时按优先级从高到低、同优先级内按用户轮转取任务，
+ * 同时受全局、单用户与单个导出三级并发上限约束；排队任务总数有上限，开启通道时按预计的任务数预留名额，
+ * 排队与预留的总数超出上限时拒绝新的导出，通道关闭时归还未用完的名额
+ * <p>
+ * 线程池拒绝任务时任务放回通道队首，稍后重试
+ * <p>
+ * 开启虚拟线程模式且运行在JDK 21+时，数据查询与进度更新等等待I/O的任务改由虚拟线程执行({@link #io()})，
+ * 通道中只保留单元格格式化与写入等CPU任务，全局并发上限不超过CPU核数
+ *
+ * @author Zhendong Zhou
+ */
+@Slf4j
+@Component
+public class ExportScheduler {
+    private final ThreadPoolTaskExecutor poolTaskExecutor;
+
+    @Value("${export.scheduler.max-running:8}")
+    private int maxRunning = 8; // 全局同时执行的任务数
+    @Value("${export.scheduler.per-user:4}")
+    private int perUser = 4; // 单个用户同时执行的任务数
+    @Value("${export.scheduler.per-export:4}")
+    private int perExport = 4; // 单个导出同时执行的任务数
+    @Value("${export.scheduler.queue-capacity:10000}")
+    private int queueCapacity = 10000; // 排队任务总数上限
+    @Value("${export.scheduler.small-pages:4}")
+    private int smallPages = 4; // 不超过该页数的导出视为小导出,优先执行
+    @Value("${export.scheduler.virtual-threads:false}")
+    private boolean virtualThreads; // I/O任务使用虚拟线程(JDK 21+)
+    @Value("${export.scheduler.io-in-flight:16}")
+    private int ioInFlight = 16; // 分页导出单个导出同时查询中及待写入的页数
+    @Value("${export.scheduler.cursor-readers:4}")
+    private int cursorReaders = 4; // 游标导出同时读取的数目,超出时排队
+
+    private volatile ExecutorService io;
+    private volatile boolean ioResolved;
+    private volatile ExecutorService readers;
+    private final ScheduledExecutorService retry = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "export-scheduler-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 以下状态均由this保护
+     */
+    private final Map<Long, User> users = new HashMap<>();
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<User>[] ready = new ArrayDeque[Priority.values().length];
+    private int queued;
+    /**
+     * 各通道预留且尚未提交的任务数
+     */
+    private int reserved;
+    private int running;
+    private boolean retrying;
+
+    /**
+     * 统计
+     */
+    private final LongAdder started = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    @Autowired
+    public ExportScheduler(@Lazy ThreadPoolTaskExecutor poolTaskExecutor) {
+        this.poolTaskExecutor = poolTaskExecutor;
+        for (int i = 0; i < ready.length; i++) {
+            ready[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * 导出优先级,数值越小越先执行
+     */
+    public enum Priority {
+        /**
+         * 小导出-交互式的少量数据
+         */
+        HIGH,
+        /**
+         * 普通导出
+         */
+        NORMAL
+    }
+
+    /**
+     * 按页数判断优先级
+     *
+     * @param pages 页数,未知时传负数
+     */
+    public Priority priority(int pages) {
+        return pages >= 0 && pages <= smallPages ? Priority.HIGH : Priority.NORMAL;
+    }
+
+    /**
+     * 为一个导出开启通道
+     *
+     * @param userId 用户ID
+     * @param priority 优先级
+     * @param concurrency 本导出期望的并发数,不超过单个导出的上限
+     * @param expected 预计提交的任务数,预先占用排队名额,排队与预留的任务加上该数超出上限时拒绝
+     * @return 通道,导出结束后需关闭以归还未用完的名额
+     * @throws RejectedExecutionException 队列已满
+     */
+    public synchronized Lane open(long userId, Priority priority, int concurrency, int expected) {
+        if (queued + reserved + expected > queueCapacity) {
+            rejected.increment();
+            log.warn("导出队列已满,拒绝导出:userId={},排队任务数={},预留任务数={}", userId, queued, reserved);
+            throw new RejectedExecutionException("导出任务过多,请稍后再试");
+        }
+        reserved += expected;
+        return new Lane(userId, priority, Math.max(1, Math.min(concurrency, perExport)), expected);
+    }
+
+    /**
+     * I/O执行器-虚拟线程模式可用时每个任务一个虚拟线程,否则返回空,由调用方在通道中执行
+     */
+    public Executor io() {
+        if (!ioResolved) {
+            synchronized (this) {
+                if (!ioResolved) {
+                    io = virtualThreads ? newVirtualThreadExecutor() : null;
+                    if (io != null) {
+                        maxRunning = Math.min(maxRunning, Runtime.getRuntime().availableProcessors());
+                        log.info("导出I/O任务使用虚拟线程,CPU任务并发上限:{}", maxRunning);
+                    } else if (virtualThreads) {
+                        log.warn("当前JDK不支持虚拟线程,导出I/O任务仍在线程池中执行");
+                    }
+                    ioResolved = true;
+                }
+            }
+        }
+        return io;
+    }
+
+    /**
+     * 游标读取执行器-读取线程在整个导出期间持有事务并阻塞在游标上,使用专属的有界线程池;
+     * 若与通道共用线程池,读取线程占满线程池后各批处理无法执行,读取线程也就永远等不到在途名额
+     */
+    public Executor readers() {
+        if (readers == null) {
+            synchronized (this) {
+                if (readers == null) {
+                    AtomicInteger count = new AtomicInteger();
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(cursorReaders, cursorReaders, 60, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<>(), runnable -> {
+                        Thread thread = new Thread(runnable, "export-cursor-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    executor.allowCoreThreadTimeOut(true);
+                    readers = executor;
+                }
+            }
+        }
+        return readers;
+    }
+
+    public int getIoInFlight() {
+        return ioInFlight;
+    }
+
+    /**
+     * JDK 21+的Executors.newVirtualThreadPerTaskExecutor,低版本返回空;以反射调用以保持Java 8的编译基线
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (io != null) {
+            io.shutdown();
+        }
+        if (readers != null) {
+            readers.shutdown();
+        }
+        retry.shutdownNow();
+    }
+
+    /**
+     * 排队中的任务数
+     */
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    /**
+     * 预留且尚未提交的任务数
+     */
+    public synchronized int getReserved() {
+        return reserved;
+    }
+
+    /**
+     * 执行中的任务数
+     */
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    /**
+     * 有排队或执行中任务的用户数
+     */
+    public synchronized int getUsers() {
+        return users.size();
+    }
+
+    public long getStarted() {
+        return started.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * 任务平均排队时间(毫秒)
+     */
+    public double getAverageWaitMillis() {
+        long count = started.sum();
+        return count == 0 ? 0 : waitNanos.sum() / 1e6 / count;
+    }
+
+    /**
+     * 任务最长排队时间(毫秒)
+     */
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    /**
+     * 统计快照
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queued", this.getQueued());
+        stats.put("reserved", this.getReserved());
+        stats.put("running", this.getRunning());
+        stats.put("users", this.getUsers());
+        stats.put("started", this.getStarted());
+        stats.put("rejected", this.getRejected());
+        stats.put("averageWaitMillis", this.getAverageWaitMillis());
+        stats.put("maxWaitMillis", this.getMaxWaitMillis());
+        return stats;
+    }
+
+    private synchronized void enqueue(Lane lane, Runnable command) {
+        User user = users.computeIfAbsent(lane.userId, User::new);
+        int p = lane.priority.ordinal();
+        if (lane.tasks.isEmpty()) {
+            if (user.lanes[p].isEmpty()) {
+                ready[p].add(user);
+            }
+            user.lanes[p].add(lane);
+        }
+        lane.tasks.add(new Task(lane, command));
+        queued++;
+        if (lane.reserved > 0) {
+            lane.reserved--;
+            reserved--;
+        }
+        this.dispatch();
+    }
+
+    private synchronized void close(Lane lane) {
+        reserved -= lane.reserved;
+        lane.reserved = 0;
+    }
+
+    /**
+     * 在并发上限内取出可执行的任务交给线程池
+     */
+    private void dispatch() {
+        while (running < maxRunning) {
+            Task task = this.next();
+            if (task == null) {
+                return;
+            }
+            try {
+                poolTaskExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // 线程池已满(与其他业务共用)或已关闭:放回队首,稍后重试;不能抛给提交或结束了其他任务的调用方
+                log.warn("线程池拒绝导出任务,稍后重试:{}", e.getMessage());
+                this.requeue(task);
+                this.retry();
+                return;
+            }
+            long wait = System.nanoTime() - task.enqueued;
+            waitNanos.add(wait);
+            maxWaitNanos.accumulateAndGet(wait, Math::max);
+            started.increment();
+        }
+    }
+
+    /**
+     * 撤销取出,任务回到通道队首
+     */
+    private void requeue(Task task) {
+        Lane lane = task.lane;
+        User user = users.get(lane.userId);
+        running--;
+        user.running--;
+        lane.running--;
+        int p = lane.priority.ordinal();
+        if (lane.tasks.isEmpty()) {
+            if (user.lanes[p].isEmpty()) {
+                ready[p].add(user);
+            }
+            user.lanes[p].addFirst(lane);
+        }
+        lane.tasks.addFirst(task);
+        queued++;
+    }
+
+    private void retry() {
+        if (retrying) {
+            return;
+        }
+        retrying = true;
+        try {
+            retry.schedule(() -> {
+                synchronized (this) {
+                    retrying = false;
+                    this.dispatch();
+                }
+            }, 100, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // 已关闭
+            retrying = false;
+        }
+    }
+
+    /**
+     * 按优先级、用户轮转、通道轮转取下一个任务
+     */
+    private Task next() {
+        for (int p = 0; p < ready.length; p++) {
+            ArrayDeque<User> ring = ready[p];
+            for (int i = ring.size(); i > 0; i--) {
+                User user = ring.poll();
+                Lane lane = user.running < perUser ? user.take(p) : null;
+                if (!user.lanes[p].isEmpty()) {
+                    ring.add(user);
+                }
+                if (lane != null) {
+                    Task task = lane.tasks.poll();
+                    queued--;
+                    running++;
+                    user.running++;
+                    lane.running++;
+                    return task;
+                }
+            }
+        }
+        return null;
+    }
+
+    private synchronized void finish(Lane lane) {
+        this.release(lane);
+        this.dispatch();
+    }
+
+    private void release(Lane lane) {
+        running--;
+        lane.running--;
+        User user = users.get(lane.userId);
+        user.running--;
+        if (user.running == 0 && user.isIdle()) {
+            users.remove(lane.userId);
+        }
+    }
+
+    /**
+     * 用户的排队状态
+     */
+    private static class User {
+        private final long userId;
+        /**
+         * 按优先级存放有排队任务的通道
+         */
+        @SuppressWarnings("unchecked")
+        private final ArrayDeque<Lane>[] lanes = new ArrayDeque[Priority.values().length];
+        private int running;
+
+        User(long userId) {
+            this.userId = userId;
+            for (int i = 0; i < lanes.length; i++) {
+                lanes[i] = new ArrayDeque<>();
+            }
+        }
+
+        /**
+         * 轮转取出未达并发上限的通道,取出后通道中仍有任务时放回队尾
+         */
+        Lane take(int priority) {
+            ArrayDeque<Lane> queue = lanes[priority];
+            for (int i = queue.size(); i > 0; i--) {
+                Lane lane = queue.poll();
+                if (lane.running < lane.concurrency) {
+                    if (lane.tasks.size() > 1) {
+                        queue.add(lane);
+                    }
+                    return lane;
+                }
+                queue.add(lane);
+            }
+            return null;
+        }
+
+        boolean isIdle() {
+            for (ArrayDeque<Lane> queue : lanes) {
+                if (!queue.isEmpty()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 单个导出的任务通道,提交的任务由调度器按公平规则执行
+     */
+    public class Lane implements Executor {
+        private final long userId;
+        private final Priority priority;
+        private final int concurrency;
+        private final ArrayDeque<Task> tasks = new ArrayDeque<>();
+        private int running;
+        /**
+         * 尚未提交的预留任务数
+         */
+        private int reserved;
+
+        Lane(long userId, Priority priority, int concurrency, int reserved) {
+            this.userId = userId;
+            this.priority = priority;
+            this.concurrency = concurrency;
+            this.reserved = reserved;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            enqueue(this, command);
+        }
+
+        /**
+         * 导出结束,归还未用完的预留名额;之后仍可提交任务
+         */
+        public void close() {
+            ExportScheduler.this.close(this);
+        }
+    }
+
+    private class Task implements Runnable {
+        private final Lane lane;
+        private final Runnable command;
+        private final long enqueued = System.nanoTime();
+
+        Task(Lane lane, Runnable command) {
+            this.lane = lane;
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            try {
+                command.run();
+            } finally {
+                finish(lane);
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.spring.facade;
+
+import com.alibaba.fastjson.JSONObject;
+import com.spring.util.ExcelExportUtils;
+import com.spring.util.ExcelImportUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 导入门面
+ * <p>
+ * 导入任务经由导出调度器执行，进度以 已处理行数/总行数 记录在用户的任务列表中(与导出任务共用{@link ExcelExportUtils.ExcelTaskUtil})，
+ * 总行数未知时为-1
+ *
+ * @author Zhendong Zhou
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor(onConstructor_ = {@Lazy, @Autowired})
+public class ImportFacade {
+    private final RedisTemplate<String, Object> redisService;
+    private final ExportScheduler exportScheduler;
+
+    public <T> ImportHandle execute(String moduleName, Class<T> clazz, File file, Consumer<List<T>> consumer, long userId) {
+        return this.execute(moduleName, clazz, file, ExcelImportUtils.DEFAULT_BATCH_SIZE, consumer, userId);
+    }
+
+    /**
+     * 导入xlsx文件
+     *
+     * @param moduleName 模块名,任务名为 模块名-时间戳.import
+     * @param clazz 目标类-导入的属性必须标注了Excel注解且类型为导入或导入导出
+     * @param file 文件,导入结束前不能删除
+     * @param batchSize 每批条数
+     * @param consumer 每批数据的处理器(如IService.saveBatch),按文件中的顺序依次调用
+     * @param userId 用户ID
+     * @return 任务句柄
+     */
+    public <T> ImportHandle execute(String moduleName, Class<T> clazz, File file, int batchSize,
+                                    Consumer<List<T>> consumer, long userId) {
+        ExcelImportUtils<T> importUtil = new ExcelImportUtils<>(clazz, batchSize);
+        String taskName = moduleName + "-" + System.currentTimeMillis() + ".import";
+        ImportHandle handle = new ImportHandle(taskName, userId);
+        ExportScheduler.Lane tasks = exportScheduler.open(userId, ExportScheduler.Priority.NORMAL, 1, 1);
+        handle.getFuture().whenComplete((rows, e) -> tasks.close());
+        try {
+            ExcelExportUtils.ExcelTaskUtil.updateTask(redisService, taskName, userId, 0, -1);
+        } catch (RuntimeException e) {
+            tasks.close();
+            throw e;
+        }
+        tasks.execute(() -> {
+            try {
+                long rows = importUtil.read(file, consumer, (current, total) ->
+                        ExcelExportUtils.ExcelTaskUtil.updateTask(redisService, taskName, userId, current, total));
+                ExcelExportUtils.ExcelTaskUtil.updateTask(redisService, taskName, userId, rows, rows);
+                handle.getFuture().complete(rows);
+            } catch (Exception e) {
+                log.error("数据导入失败：{},堆栈信息：{}", e.getMessage(), JSONObject.toJSON(e.getStackTrace()));
+                ExcelExportUtils.ExcelTaskUtil.removeCache(redisService, taskName, userId);
+                handle.getFuture().completeExceptionally(e);
+            }
+        });
+        return handle;
+    }
+}
@@ -0,0 +1,32 @@
+package com.spring.facade;
+
+import lombok.Getter;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 导入任务句柄-提交后立即返回，全部数据处理完成后结束
+ *
+ * @author Zhendong Zhou
+ */
+@Getter
+public class ImportHandle {
+    /**
+     * 任务名,可用于查询任务进度
+     */
+    private final String taskName;
+    private final long userId;
+    /**
+     * 导入的数据行数
+     */
+    private final CompletableFuture<Long> future = new CompletableFuture<>();
+
+    ImportHandle(String taskName, long userId) {
+        this.taskName = taskName;
+        this.userId = userId;
+    }
+
+    public boolean isDone() {
+        return future.isDone();
+    }
+}
@@ -0,0 +1,25 @@
+package com.spring.facade;
+
+/**
+ * 可续传的导出-注册为Spring Bean,节点重启后以持久化的参数重新构建中断的导出任务
+ * <p>
+ * 数据供给等任务参数无法持久化，由实现按名称与参数重新构建；重新构建的任务只提供数据，
+ * 文件名、格式、页数与每页条数沿用中断前的检查点
+ *
+ * @author Zhendong Zhou
+ */
+public interface ResumableExport {
+    /**
+     * 名称,与{@link ExportJob#getResumable()}对应
+     */
+    String name();
+
+    /**
+     * 重新构建导出任务
+     *
+     * @param userId 用户ID
+     * @param args 提交时的{@link ExportJob#getResumeArgs()}
+     * @return 导出任务
+     */
+    ExportJob<?> rebuild(long userId, String args);
+}
@@ -3,13 +3,40 @@ package com.spring.repository.mapper;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.spring.repository.entity.Test;
 import org.apache.ibatis.annotations.Options;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
 import org.apache.ibatis.cursor.Cursor;
 import org.apache.ibatis.mapping.ResultSetType;
 
+import java.util.List;
+
 /**
  * @author Zhendong Zhou
  */
 public interface TestMapper extends BaseMapper<Test> {
     @Options(resultSetType = ResultSetType.FORWARD_ONLY, fetchSize = Integer.MIN_VALUE)
     Cursor<Test> cursor();
+
+    /**
+     * 按(编码,主键)升序,取after之后(不含)跳过offset条的键-只扫描code索引(二级索引中带有主键)
+     */
+    @Select("<script>SELECT code, id FROM test <where><if test='after != null'>" +
+            "code &gt; #{after.code} OR (code = #{after.code} AND id &gt; #{after.id})</if></where>" +
+            " ORDER BY code, id LIMIT #{offset}, 1</script>")
+    Test bound(@Param("after") Test after, @Param("offset") int offset);
+
+    /**
+     * 按(编码,主键)区间(after, to]查询,最多size条
+     */
+    @Select("<script>SELECT * FROM test <where><if test='after != null'>" +
+            "(code &gt; #{after.code} OR (code = #{after.code} AND id &gt; #{after.id}))</if>" +
+            "<if test='to != null'> AND (code &lt; #{to.code} OR (code = #{to.code} AND id &lt;= #{to.id}))</if></where>" +
+            " ORDER BY code, id LIMIT #{size}</script>")
+    List<Test> range(@Param("after") Test after, @Param("to") Test to, @Param("size") int size);
+
+    /**
+     * 表统计信息中的预估行数-不扫描数据
+     */
+    @Select("SELECT TABLE_ROWS FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'test'")
+    Long estimate();
 }
@@ -4,9 +4,17 @@ import com.baomidou.mybatisplus.extension.service.IService;
 import com.spring.repository.entity.Test;
 import org.apache.ibatis.cursor.Cursor;
 
+import java.util.List;
+
 /**
  * @author Zhendong Zhou
  */
 public interface ITestDataService extends IService<Test> {
     Cursor<Test> cursor();
+
+    Test bound(Test after, int size);
+
+    List<Test> range(Test after, Test to, int size);
+
+    long estimate();
 }
@@ -7,6 +7,8 @@ import com.spring.repository.service.ITestDataService;
 import org.apache.ibatis.cursor.Cursor;
 import org.springframework.stereotype.Service;
 
+import java.util.List;
+
 /**
  * @author Zhendong Zhou
  */
@@ -16,4 +18,20 @@ public class TestDataServiceImpl extends ServiceImpl<TestMapper, Test> implement
     public Cursor<Test> cursor() {
         return baseMapper.cursor();
     }
+
+    @Override
+    public Test bound(Test after, int size) {
+        return baseMapper.bound(after, size - 1);
+    }
+
+    @Override
+    public List<Test> range(Test after, Test to, int size) {
+        return baseMapper.range(after, to, size);
+    }
+
+    @Override
+    public long estimate() {
+        Long rows = baseMapper.estimate();
+        return rows == null ? -1 : rows;
+    }
 }
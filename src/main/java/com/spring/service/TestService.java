@@ -1,6 +1,10 @@
 package com.spring.service;
 
 import com.spring.facade.ExportFacade;
+import com.spring.facade.ExportJob;
+import com.spring.facade.ImportFacade;
+import com.spring.facade.ImportHandle;
+import com.spring.facade.ResumableExport;
 import com.spring.repository.entity.Test;
 import com.spring.repository.service.ITestDataService;
 import lombok.RequiredArgsConstructor;
@@ -11,6 +15,11 @@ import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
 
 /**
  * @author Zhendong Zhou
@@ -18,8 +27,9 @@ import org.springframework.transaction.PlatformTransactionManager;
 @Slf4j
 @Service
 @RequiredArgsConstructor(onConstructor_ = {@Lazy, @Autowired})
-public class TestService {
+public class TestService implements ResumableExport {
     private final ExportFacade exportFacade;
+    private final ImportFacade importFacade;
     private final ITestDataService testDataService;
     private final ThreadPoolTaskExecutor poolTaskExecutor;
     private final PlatformTransactionManager dataSourceTransactionManager;
@@ -32,17 +42,75 @@ public class TestService {
         exportFacade.execute("测试", Test.class, testDataService::page, userId);
     }
 
+    // 自动分页-不查询总数,立即开始导出,由不足一页的查询结果确定页数;表统计信息的预估行数只用于展示进度
+    public void autoExport() {
+        exportFacade.submit(ExportJob.of("测试", Test.class, userId)
+                .dataProvider(testDataService::page).auto(true).size(10000).estimator(testDataService::estimate).build());
+    }
+
     // 手动分页-禁止自动分页，手动指定查询数目与分页条数,默认情况下如果假定数据量不会超过初始值可以直接使用该方法
+    // 以查询条件作为缓存键,重复点击导出时复用同一个文件
     public void pageExport() {
-        exportFacade.setPages(2).setSize(1000).execute("测试", Test.class, testDataService::page, false, userId);
+        exportFacade.submit(ExportJob.of("测试", Test.class, userId)
+                .dataProvider(testDataService::page).pages(2).size(1000).cacheKey("pages=2&size=1000").build());
+    }
+
+    // 可续传-节点重启后由其他实例(或重启后的本节点)从最后一个已结束的工作表之后继续导出
+    public void resumableExport() {
+        exportFacade.submit(ExportJob.of("测试", Test.class, userId)
+                .dataProvider(testDataService::page).resumable(this.name()).build());
+    }
+
+    @Override
+    public String name() {
+        return "test-page";
+    }
+
+    // 续传时重新构建任务,只需提供数据;查询条件可经由resumeArgs传递
+    @Override
+    public ExportJob<?> rebuild(long userId, String args) {
+        return ExportJob.of("测试", Test.class, userId).dataProvider(testDataService::page).build();
+    }
+
+    // 键集分页-按(编码,主键)划分区间并行查询,编码可能重复,与主键组合后区间条数不超过每页条数;适用于深分页的大表
+    public void keysetExport() {
+        exportFacade.submit(ExportJob.of("测试", Test.class, userId)
+                .keysetProvider(new ExportFacade.KeysetProvider<Test, Test>() {
+                    @Override
+                    public Test bound(Test after, int size) {
+                        return testDataService.bound(after, size);
+                    }
+
+                    @Override
+                    public List<Test> range(Test after, Test to, int size) {
+                        return testDataService.range(after, to, size);
+                    }
+                }).build());
     }
 
     // 游标用法
     public void cursorExport() {
-        exportFacade.setCursor(2000).cursor("测试", Test.class, testDataService::cursor, items -> {
-            for (Test item : items) {
-                item.setName(item.getName() + "-游标的额外处理");
-            }
-        }, userId);
+        exportFacade.submit(ExportJob.of("测试", Test.class, userId)
+                .cursorProvider(testDataService::cursor).handlerSize(2000).handler(items -> {
+                    for (Test item : items) {
+                        item.setName(item.getName() + "-游标的额外处理");
+                    }
+                }).build());
+    }
+
+    // 导入-流式读取上传的文件,每1000条批量入库一次,返回可查询进度的任务名
+    public String importExcel(MultipartFile upload) throws IOException {
+        File file = File.createTempFile("import-", ".xlsx");
+        ImportHandle handle;
+        try {
+            upload.transferTo(file);
+            handle = importFacade.execute("测试", Test.class, file, testDataService::saveBatch, userId);
+        } catch (IOException | RuntimeException e) {
+            // 未能提交(如队列已满)时任务不会删除文件
+            file.delete();
+            throw e;
+        }
+        handle.getFuture().whenComplete((rows, e) -> file.delete());
+        return handle.getTaskName();
     }
 }
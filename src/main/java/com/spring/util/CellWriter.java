@@ -0,0 +1,44 @@
+package com.spring.util;
+
+/**
+ * 单元格写入策略
+ * <p>
+ * 由导出计划按字段声明类型与Excel注解为每一列预先选定，写入时直接取值并输出，不再逐个单元格判断类型
+ *
+ * @author Zhendong Zhou
+ */
+@FunctionalInterface
+public interface CellWriter {
+    /**
+     * 读取行对象中本列的值并写出
+     *
+     * @param row 行对象
+     * @param out 单元格输出
+     */
+    void write(Object row, Output out) throws Throwable;
+
+    /**
+     * 为导出列选定写入策略
+     *
+     * @param column 导出列
+     * @return 写入策略
+     */
+    static CellWriter of(ExcelExportPlan.Column column) {
+        return CellWriters.of(column);
+    }
+
+    /**
+     * 单元格输出
+     */
+    interface Output {
+        /**
+         * 写出数值
+         */
+        void number(double value);
+
+        /**
+         * 写出文本
+         */
+        void text(String value);
+    }
+}
@@ -0,0 +1,192 @@
+package com.spring.util;
+
+import com.spring.annotation.Excel;
+import org.apache.poi.ss.usermodel.CellType;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 单元格写入策略的实现集
+ *
+ * @author Zhendong Zhou
+ */
+final class CellWriters {
+    /**
+     * 时间格式缓存-DateTimeFormatter不可变且线程安全，同一格式全局共享
+     */
+    private static final ConcurrentMap<String, DateTimeFormatter> FORMATTERS = new ConcurrentHashMap<>();
+    /**
+     * {@link Excel#dateFormat()}的默认格式,时间类型未指定格式时改用TIME_PATTERN
+     */
+    private static final String DEFAULT_PATTERN = "yyyy-MM-dd HH:mm:ss";
+    private static final String TIME_PATTERN = "HH:mm:ss";
+
+    private CellWriters() {
+    }
+
+    /**
+     * 不带时区的格式,只有Date与Instant在格式化前按系统时区转换,带时区的时间按其自身的时区输出
+     */
+    static DateTimeFormatter formatter(String pattern) {
+        return FORMATTERS.computeIfAbsent(pattern, DateTimeFormatter::ofPattern);
+    }
+
+    private static DateTimeFormatter formatter(Excel attr, Class<?> type) {
+        if (isTime(type) && DEFAULT_PATTERN.equals(attr.dateFormat())) {
+            return formatter(TIME_PATTERN);
+        }
+        return formatter(attr.dateFormat());
+    }
+
+    private static boolean isTime(Class<?> type) {
+        return type == LocalTime.class || type == OffsetTime.class;
+    }
+
+    static CellWriter of(ExcelExportPlan.Column column) {
+        Excel attr = column.getAttr();
+        Class<?> type = column.getValueType();
+        String defaultValue = attr.defaultValue();
+        // 声明类型无法确定时,运行时的时间值与原实现一致优先按时间格式输出
+        DateTimeFormatter dynamic = type == Object.class || type.isInterface() && !TemporalAccessor.class.isAssignableFrom(type)
+                ? formatter(attr.dateFormat()) : null;
+        if (Date.class.isAssignableFrom(type) || TemporalAccessor.class.isAssignableFrom(type)) {
+            DateTimeFormatter formatter = formatter(attr, type);
+            return (row, out) -> {
+                Object value = column.value(row);
+                out.text(value == null ? defaultValue : formatDate(formatter, value));
+            };
+        }
+        if (attr.isDecimalFormat()) {
+            if (isIntegral(type)) {
+                return (row, out) -> {
+                    Object owner = column.owner(row);
+                    if (owner == null) {
+                        out.number(0);
+                    } else {
+                        out.text(Long.toString(column.longValue(owner)));
+                    }
+                };
+            }
+            if (type == double.class) {
+                return (row, out) -> {
+                    Object owner = column.owner(row);
+                    if (owner == null) {
+                        out.number(0);
+                    } else {
+                        out.text(BigDecimal.valueOf(column.doubleValue(owner)).stripTrailingZeros().toPlainString());
+                    }
+                };
+            }
+            return (row, out) -> {
+                Object value = column.value(row);
+                if (value == null) {
+                    out.number(0);
+                } else if (dynamic != null && isDate(value)) {
+                    out.text(formatDate(dynamic, value));
+                } else {
+                    out.text(formatDecimal(value));
+                }
+            };
+        }
+        if (attr.cellType() == CellType.NUMERIC) {
+            if (type.isPrimitive() && type != boolean.class && type != char.class) {
+                return (row, out) -> {
+                    Object owner = column.owner(row);
+                    if (owner == null) {
+                        out.text(defaultValue);
+                    } else {
+                        out.number(column.doubleValue(owner));
+                    }
+                };
+            }
+            return (row, out) -> {
+                Object value = column.value(row);
+                if (value == null) {
+                    out.text(defaultValue);
+                } else if (dynamic != null && isDate(value)) {
+                    out.text(formatDate(dynamic, value));
+                } else if (value instanceof Number) {
+                    out.number(((Number) value).doubleValue());
+                } else {
+                    out.number(Double.parseDouble(String.valueOf(value)));
+                }
+            };
+        }
+        if (dynamic != null) {
+            // 声明类型无法确定时按运行时类型判断
+            String suffix = attr.suffix();
+            return (row, out) -> {
+                Object value = column.value(row);
+                if (value == null) {
+                    out.text(defaultValue);
+                } else if (isDate(value)) {
+                    out.text(formatDate(dynamic, value));
+                } else {
+                    out.text(suffix.isEmpty() ? String.valueOf(value) : value + suffix);
+                }
+            };
+        }
+        String suffix = attr.suffix();
+        if (suffix.isEmpty()) {
+            return (row, out) -> {
+                Object value = column.value(row);
+                out.text(value == null ? defaultValue : String.valueOf(value));
+            };
+        }
+        return (row, out) -> {
+            Object value = column.value(row);
+            out.text(value == null ? defaultValue : value + suffix);
+        };
+    }
+
+    private static boolean isDate(Object value) {
+        return value instanceof Date || value instanceof TemporalAccessor;
+    }
+
+    private static boolean isIntegral(Class<?> type) {
+        return type == int.class || type == long.class || type == short.class || type == byte.class;
+    }
+
+    static String formatDate(DateTimeFormatter formatter, Object value) {
+        if (value instanceof Date) {
+            // java.sql.Date不支持toInstant,统一按毫秒值转换
+            return formatter.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(((Date) value).getTime()), ZoneId.systemDefault()));
+        }
+        if (value instanceof Instant) {
+            return formatter.format(LocalDateTime.ofInstant((Instant) value, ZoneId.systemDefault()));
+        }
+        if (value instanceof LocalDate) {
+            return formatter.format(((LocalDate) value).atStartOfDay());
+        }
+        if (isTime(value.getClass()) && formatter == formatter(DEFAULT_PATTERN)) {
+            // 声明类型无法确定时,时间值按运行时类型改用时间格式
+            return formatter(TIME_PATTERN).format((TemporalAccessor) value);
+        }
+        return formatter.format((TemporalAccessor) value);
+    }
+
+    static String formatDecimal(Object value) {
+        BigDecimal decimal;
+        if (value instanceof BigDecimal) {
+            decimal = (BigDecimal) value;
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return Long.toString(((Number) value).longValue());
+        } else if (value instanceof Double) {
+            decimal = BigDecimal.valueOf((Double) value);
+        } else {
+            decimal = new BigDecimal(value.toString());
+        }
+        return decimal.stripTrailingZeros().toPlainString();
+    }
+}
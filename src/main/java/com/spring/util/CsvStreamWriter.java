@@ -0,0 +1,294 @@
+package com.spring.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * CSV写入后端(可选gzip压缩)
+ * <p>
+ * 沿用{@link com.spring.annotation.Excel}的列名、日期格式、后缀与默认值，不输出样式与合并；
+ * 所有工作表按登记顺序依次写入同一个文件，只在文件开头输出一次标题行，没有单表行数上限；
+ * 未轮到的工作表先写入各自的溢出文件，轮到时再拷贝到文件中，不在内存中排队
+ * <p>
+ * 文件经由缓冲的文件通道写入.part临时文件，生成完成后再改名；未压缩的文件以UTF-8 BOM开头，以便Excel识别编码
+ *
+ * @author Zhendong Zhou
+ */
+@Slf4j
+public class CsvStreamWriter implements ExportWriter {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final ExcelExportPlan plan;
+    private final String fileName;
+    private final String filePath;
+    private final File part;
+    private final Writer out;
+    private final List<CsvSheet> sheets = new ArrayList<>();
+    /**
+     * 当前允许写入文件的工作表下标,之后的工作表先写入溢出文件
+     */
+    private int turn;
+
+    private final ExcelExportPlan.Column[] columns;
+    private final char[] number = new char[20];
+
+    public CsvStreamWriter(ExcelExportPlan plan, String dir, String moduleName, boolean gzip) {
+        this.plan = plan;
+        this.fileName = moduleName + "-" + System.currentTimeMillis() + (gzip ? ".csv.gz" : ".csv");
+        this.filePath = dir + fileName;
+        this.part = new File(filePath + ".part");
+        if (!part.getParentFile().exists() && !part.getParentFile().mkdirs()) {
+            log.error("建立存储CSV目录失败");
+        }
+        this.columns = plan.getExportColumns();
+        try {
+            OutputStream stream = Channels.newOutputStream(FileChannel.open(part.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+            if (gzip) {
+                stream = new GZIPOutputStream(stream, BUFFER_SIZE);
+            }
+            this.out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_SIZE);
+            if (!gzip) {
+                out.write('\uFEFF');
+            }
+            this.writeHead();
+        } catch (IOException e) {
+            throw new IllegalStateException("CSV文件创建失败:" + fileName, e);
+        }
+    }
+
+    @Override
+    public String getFileName() {
+        return fileName;
+    }
+
+    @Override
+    public ExcelExportPlan getPlan() {
+        return plan;
+    }
+
+    @Override
+    public synchronized SheetWriter createSheet(String name) {
+        CsvSheet sheet = new CsvSheet(sheets.size());
+        sheets.add(sheet);
+        return sheet;
+    }
+
+    @Override
+    public synchronized String make() {
+        try {
+            for (CsvSheet sheet : sheets) {
+                sheet.close();
+            }
+            out.close();
+            if (!part.renameTo(new File(filePath))) {
+                throw new IOException("重命名失败:" + part);
+            }
+        } catch (Exception e) {
+            log.error("CSV文件生成失败:{}", e.getMessage());
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            sheets.forEach(CsvSheet::discard);
+            part.delete();
+            throw new RuntimeException("CSV文件生成失败");
+        }
+        return fileName;
+    }
+
+    private void writeHead() throws IOException {
+        boolean first = true;
+        for (ExcelExportPlan.Column column : columns) {
+            if (!first) {
+                out.write(',');
+            }
+            writeText(out, column.getAttr().name());
+            first = false;
+        }
+        out.write("\r\n");
+    }
+
+    private void writeRows(Writer out, RowBuffer rows) throws IOException {
+        for (int r = 0; r < rows.size(); r++) {
+            boolean first = true;
+            for (ExcelExportPlan.Column column : columns) {
+                int c = column.getIndex();
+                if (!first) {
+                    out.write(',');
+                }
+                first = false;
+                switch (rows.kind(r, c)) {
+                    case RowBuffer.NUMBER:
+                        writeNumber(out, rows.number(r, c));
+                        break;
+                    case RowBuffer.TEXT:
+                        writeText(out, rows.text(r, c));
+                        break;
+                    default:
+                }
+            }
+            out.write("\r\n");
+        }
+    }
+
+    /**
+     * 按RFC 4180输出字段,含分隔符、引号或换行时加引号
+     */
+    private void writeText(Writer out, String value) throws IOException {
+        int length = value.length();
+        boolean quote = false;
+        for (int i = 0; i < length && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quote) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) == '"') {
+                out.write(value, start, i + 1 - start);
+                out.write('"');
+                start = i + 1;
+            }
+        }
+        out.write(value, start, length - start);
+        out.write('"');
+    }
+
+    private void writeNumber(Writer out, double value) throws IOException {
+        long integral = (long) value;
+        if (integral != value || integral == Long.MIN_VALUE) {
+            out.write(Double.isNaN(value) || Double.isInfinite(value) ? Double.toString(value)
+                    : BigDecimal.valueOf(value).toPlainString());
+            return;
+        }
+        boolean negative = integral < 0;
+        int pos = number.length;
+        do {
+            number[--pos] = (char) ('0' + Math.abs(integral % 10));
+            integral /= 10;
+        } while (integral != 0);
+        if (negative) {
+            number[--pos] = '-';
+        }
+        out.write(number, pos, number.length - pos);
+    }
+
+    /**
+     * 工作表-只决定数据在文件中的先后顺序
+     */
+    private class CsvSheet implements SheetWriter {
+        private final int index;
+        /**
+         * 未轮到时写入的溢出文件,轮到时拷贝到文件中并删除
+         */
+        private File spill;
+        private Writer spillOut;
+        private int size;
+        private boolean closed;
+
+        CsvSheet(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void append(RowBuffer rows) {
+            if (closed) {
+                throw new IllegalStateException("工作表已结束写入:" + index);
+            }
+            size += rows.size();
+            try {
+                if (turn == index) {
+                    writeRows(out, rows);
+                    return;
+                }
+                if (spillOut == null) {
+                    // 以.part结尾,清理时视为生成中的临时文件
+                    spill = new File(filePath + "." + index + ".part");
+                    spillOut = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(spill.toPath()),
+                            StandardCharsets.UTF_8));
+                }
+                writeRows(spillOut, rows);
+            } catch (IOException e) {
+                throw new IllegalStateException("CSV写入失败:" + fileName, e);
+            }
+        }
+
+        /**
+         * 轮到本表时拷贝溢出文件
+         */
+        private void drain() {
+            if (spillOut == null) {
+                return;
+            }
+            try {
+                spillOut.close();
+                spillOut = null;
+                char[] buffer = new char[8192];
+                try (Reader in = Files.newBufferedReader(spill.toPath(), StandardCharsets.UTF_8)) {
+                    for (int n; (n = in.read(buffer)) > 0; ) {
+                        out.write(buffer, 0, n);
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("CSV写入失败:" + fileName, e);
+            } finally {
+                this.discard();
+            }
+        }
+
+        private void discard() {
+            if (spillOut != null) {
+                try {
+                    spillOut.close();
+                } catch (IOException ignored) {
+                }
+                spillOut = null;
+            }
+            if (spill != null && spill.exists() && !spill.delete()) {
+                log.warn("CSV溢出文件删除失败:{}", spill);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // 轮到本表时依次放行之后已结束的工作表
+            while (turn < sheets.size() && sheets.get(turn).closed) {
+                sheets.get(turn).drain();
+                turn++;
+            }
+            if (turn < sheets.size()) {
+                sheets.get(turn).drain();
+            }
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.spring.util;
+
+import com.spring.annotation.Excel;
+import com.spring.annotation.Excels;
+import org.springframework.util.StringUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 导出计划-按实体类缓存的列元数据
+ * <p>
+ * 每个实体类只在第一次导出时解析一次注解与取值器(MethodHandle)，之后所有导出共享同一份计划，
+ * 写入单元格时不再进行反射查找
+ *
+ * @author Zhendong Zhou
+ */
+public final class ExcelExportPlan {
+    private static final ConcurrentMap<Class<?>, ExcelExportPlan> PLANS = new ConcurrentHashMap<>();
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodHandle RUNTIME_GET;
+
+    static {
+        try {
+            RUNTIME_GET = LOOKUP.findVirtual(RuntimeGetter.class, "get", GETTER_TYPE);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * 获取实体类的导出计划
+     *
+     * @param clazz 实体类
+     * @return 导出计划
+     */
+    public static ExcelExportPlan of(Class<?> clazz) {
+        return PLANS.computeIfAbsent(clazz, ExcelExportPlan::new);
+    }
+
+    private final Class<?> clazz;
+    /**
+     * 导出列(按列序)
+     */
+    private final Column[] columns;
+    /**
+     * 需要写入数据的列(isExport),逐行写入时只遍历这些列
+     */
+    private final Column[] exportColumns;
+    /**
+     * 数据行行高,单位为磅,取最后一列的设置;不存在列时为-1
+     */
+    private final double rowHeight;
+    /**
+     * 基准列下标,-1代表不存在基准列
+     */
+    private final int datum;
+    /**
+     * 需要按行合并的列下标
+     */
+    private final int[] mergeColumns;
+
+    private ExcelExportPlan(Class<?> clazz) {
+        this.clazz = clazz;
+        List<Field> tempFields = new ArrayList<>();
+        if (clazz.getSuperclass() != null) {
+            tempFields.addAll(Arrays.asList(clazz.getSuperclass().getDeclaredFields()));
+        }
+        tempFields.addAll(Arrays.asList(clazz.getDeclaredFields()));
+
+        List<Column> columns = new ArrayList<>();
+        for (Field field : tempFields) {
+            // 单注解
+            if (field.isAnnotationPresent(Excel.class)) {
+                Excel attr = field.getAnnotation(Excel.class);
+                if (isExport(attr)) {
+                    columns.add(new Column(columns.size(), field, attr));
+                }
+            }
+            // 多注解
+            if (field.isAnnotationPresent(Excels.class)) {
+                for (Excel attr : field.getAnnotation(Excels.class).value()) {
+                    if (isExport(attr)) {
+                        columns.add(new Column(columns.size(), field, attr));
+                    }
+                }
+            }
+        }
+        this.columns = columns.toArray(new Column[0]);
+        this.exportColumns = columns.stream().filter(column -> column.attr.isExport()).toArray(Column[]::new);
+        this.rowHeight = this.columns.length == 0 ? -1 : this.columns[this.columns.length - 1].attr.height();
+
+        int datum = -1;
+        List<Integer> merges = new ArrayList<>();
+        for (Column column : this.columns) {
+            if (column.attr.datum()) {
+                datum = column.index;
+            }
+            if (column.attr.mergeRow()) {
+                merges.add(column.index);
+            }
+        }
+        this.datum = datum;
+        this.mergeColumns = merges.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static boolean isExport(Excel attr) {
+        return attr != null && (attr.type() == Excel.Type.ALL || attr.type() == Excel.Type.EXPORT);
+    }
+
+    public Class<?> getClazz() {
+        return clazz;
+    }
+
+    public Column[] getColumns() {
+        return columns;
+    }
+
+    public Column[] getExportColumns() {
+        return exportColumns;
+    }
+
+    public double getRowHeight() {
+        return rowHeight;
+    }
+
+    public int size() {
+        return columns.length;
+    }
+
+    public Column getDatum() {
+        return datum < 0 ? null : columns[datum];
+    }
+
+    public int[] getMergeColumns() {
+        return mergeColumns;
+    }
+
+    private static Method findGetter(Class<?> type, String name) {
+        try {
+            return type.getMethod(name);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 按运行时类型查找的get方法,每个运行时类只查找一次
+     */
+    private static final class RuntimeGetter {
+        private final String name;
+        private final ClassValue<MethodHandle> handles = new ClassValue<MethodHandle>() {
+            @Override
+            protected MethodHandle computeValue(Class<?> type) {
+                try {
+                    return LOOKUP.unreflect(type.getMethod(name)).asType(GETTER_TYPE);
+                } catch (NoSuchMethodException | IllegalAccessException e) {
+                    throw new IllegalStateException("导出列取值失败:" + type.getName() + "." + name, e);
+                }
+            }
+        };
+
+        RuntimeGetter(String name) {
+            this.name = name;
+        }
+
+        Object get(Object o) throws Throwable {
+            return handles.get(o.getClass()).invokeExact(o);
+        }
+    }
+
+    /**
+     * 导出列-预解析的注解与取值器
+     */
+    public static final class Column {
+        private final int index;
+        private final Field field;
+        private final Excel attr;
+        /**
+         * 字段取值器与targetAttr属性链,按顺序调用
+         */
+        private final MethodHandle[] getters;
+        /**
+         * 最终取得的值的声明类型
+         */
+        private final Class<?> valueType;
+        /**
+         * 基本数值类型的直接取值器,避免装箱
+         */
+        private final MethodHandle doubleGetter;
+        private final MethodHandle longGetter;
+        /**
+         * 单元格写入策略
+         */
+        private final CellWriter writer;
+
+        Column(int index, Field field, Excel attr) {
+            this.index = index;
+            this.field = field;
+            this.attr = attr;
+            List<MethodHandle> handles = new ArrayList<>();
+            Class<?> type = field.getType();
+            try {
+                field.setAccessible(true);
+                handles.add(LOOKUP.unreflectGetter(field));
+                if (!StringUtils.isEmpty(attr.targetAttr())) {
+                    for (String name : attr.targetAttr().split("[.]")) {
+                        if (StringUtils.isEmpty(name)) {
+                            continue;
+                        }
+                        String getter = "get" + name.substring(0, 1).toUpperCase() + name.substring(1);
+                        Method method = type == Object.class ? null : findGetter(type, getter);
+                        if (method == null) {
+                            // 声明类型没有该属性(多态的子类属性)时,之后的属性链按运行时类型查找
+                            handles.add(RUNTIME_GET.bindTo(new RuntimeGetter(getter)));
+                            type = Object.class;
+                        } else {
+                            handles.add(LOOKUP.unreflect(method));
+                            type = method.getReturnType();
+                        }
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("导出列解析失败:" + field.getName() + "." + attr.targetAttr(), e);
+            }
+            this.getters = new MethodHandle[handles.size()];
+            for (int i = 0; i < getters.length; i++) {
+                getters[i] = handles.get(i).asType(GETTER_TYPE);
+            }
+            this.valueType = type;
+            MethodHandle last = handles.get(handles.size() - 1);
+            boolean number = type.isPrimitive() && type != boolean.class && type != char.class;
+            boolean integral = type == int.class || type == long.class || type == short.class || type == byte.class;
+            this.doubleGetter = number ? last.asType(MethodType.methodType(double.class, Object.class)) : null;
+            this.longGetter = integral ? last.asType(MethodType.methodType(long.class, Object.class)) : null;
+            this.writer = CellWriter.of(this);
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public Field getField() {
+            return field;
+        }
+
+        public Excel getAttr() {
+            return attr;
+        }
+
+        public Class<?> getValueType() {
+            return valueType;
+        }
+
+        public CellWriter getWriter() {
+            return writer;
+        }
+
+        /**
+         * 获取bean中的属性值,属性链中间值为空时返回空
+         *
+         * @param row 实体对象
+         * @return 最终的属性值
+         */
+        public Object value(Object row) throws Throwable {
+            Object owner = owner(row);
+            return owner == null ? null : getters[getters.length - 1].invokeExact(owner);
+        }
+
+        /**
+         * 沿属性链取到最后一级取值的所属对象,中间值为空时返回空
+         */
+        Object owner(Object row) throws Throwable {
+            Object o = row;
+            for (int i = 0; i < getters.length - 1 && o != null; i++) {
+                o = getters[i].invokeExact(o);
+            }
+            return o;
+        }
+
+        /**
+         * 基本数值类型直接取值
+         *
+         * @param owner 所属对象,见{@link #owner(Object)}
+         */
+        double doubleValue(Object owner) throws Throwable {
+            return (double) doubleGetter.invokeExact(owner);
+        }
+
+        long longValue(Object owner) throws Throwable {
+            return (long) longGetter.invokeExact(owner);
+        }
+    }
+}
@@ -2,39 +2,54 @@ package com.spring.util;
 
 import com.alibaba.fastjson.JSONObject;
 import com.spring.annotation.Excel;
-import com.spring.annotation.Excels;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.poi.hssf.usermodel.HSSFFont;
-import org.apache.poi.hssf.util.HSSFColor;
+import org.apache.poi.POIXMLTypeLoader;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.ss.util.CellRangeAddress;
 import org.apache.poi.ss.util.CellRangeAddressList;
 import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.util.IOUtils;
+import org.apache.poi.util.TempFile;
 import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFDataValidation;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.xmlbeans.XmlOptions;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTWorksheet;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.util.StringUtils;
 
+import javax.xml.namespace.QName;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
-import java.math.BigDecimal;
-import java.text.SimpleDateFormat;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 /**
  * 实验多线程导出工具包
+ * <p>
+ * 工作表结束写入时({@link Write#close()})立即把该表的数据压缩写入输出文件，各表按结束的先后顺序写入；
+ * 生成文件时只需补齐工作簿、样式与关系等部件，不再集中压缩全部工作表
  *
  * @author Zhendong Zhou
  * @date 2022/7/8
  */
 @Slf4j
-public class ExcelExportUtils<T> {
+public class ExcelExportUtils<T> implements ExportWriter {
     public final static int MAX_EXPORT_COUNT = 50000;// 单页最大导出数量
-    public final static String PUBLIC_EXPORT_DIR = "/share/storage/export/";// 默认的导出的目录
+    public final static String PUBLIC_EXPORT_DIR = System.getProperty("export.dir", "/share/storage/export/");// 默认的导出的目录,可由JVM参数-Dexport.dir覆盖(如基准测试)
+    public final static int DEFAULT_ROW_WINDOW = 500;// 默认内存中保留的行数,超出的行会刷写到临时文件
 
 
     /**
@@ -42,14 +57,23 @@ public class ExcelExportUtils<T> {
      */
     private Class<T> clazz;
     /**
-     * 注解列表
+     * 导出计划
      */
-    private List<Field> fields;
+    private ExcelExportPlan plan;
 
     /**
      * 文件对象
      */
     private SXSSFWorkbook book;
+    /**
+     * 工作簿样式池
+     */
+    private ExcelStylePool styles;
+
+    /**
+     * 内存行窗口大小
+     */
+    private final int rowWindow;
 
     /**
      * 文件名
@@ -58,16 +82,64 @@ public class ExcelExportUtils<T> {
 
     private final String filePath;
 
+    /**
+     * 输出文件,首个工作表结束时创建于.part临时文件,生成完成后再改名
+     */
+    private FileOutputStream file;
+    private ZipOutputStream zip;
+    /**
+     * 检查点,开启时每个工作表结束后把输出文件同步到磁盘,见{@link ExportCheckpoint}
+     */
+    private ExportCheckpoint checkpoint;
+    /**
+     * 已写入输出文件的工作表条目
+     */
+    private final Set<String> finished = new HashSet<>();
+
     public ExcelExportUtils(Class<T> clazz, String dir, String moduleName) {
-        this(dir, moduleName);
+        this(clazz, dir, moduleName, DEFAULT_ROW_WINDOW);
+    }
+    public ExcelExportUtils(Class<T> clazz, String dir, String moduleName, int rowWindow) {
+        this(clazz, dir, moduleName, rowWindow, null);
+    }
+
+    /**
+     * @param checkpoint 检查点,续传时沿用其中的文件名并恢复已结束的工作表,为空时不开启
+     */
+    public ExcelExportUtils(Class<T> clazz, String dir, String moduleName, int rowWindow, ExportCheckpoint checkpoint) {
+        this(dir, moduleName, rowWindow, checkpoint);
 
         this.clazz = clazz;
-        this.buildExcelField();
+        this.plan = ExcelExportPlan.of(clazz);
     }
     public ExcelExportUtils(String dir, String moduleName) {
+        this(dir, moduleName, DEFAULT_ROW_WINDOW);
+    }
+
+    /**
+     * @param dir 导出目录
+     * @param moduleName 模块名
+     * @param rowWindow 每个工作表在内存中保留的行数,内存占用与导出总行数无关
+     */
+    public ExcelExportUtils(String dir, String moduleName, int rowWindow) {
+        this(dir, moduleName, rowWindow, null);
+    }
+
+    public ExcelExportUtils(String dir, String moduleName, int rowWindow, ExportCheckpoint checkpoint) {
+        this.rowWindow = rowWindow;
         this.buildWorkBook();
-        this.fileName = encodingFilename(moduleName);
+        this.fileName = checkpoint != null && checkpoint.isResume() ? checkpoint.getFileName() : encodingFilename(moduleName);
         this.filePath = getAbsoluteFile(dir, fileName);
+        this.checkpoint = checkpoint;
+        if (checkpoint != null && checkpoint.isResume()) {
+            File part = new File(filePath + ".part");
+            checkpoint.prepare(part);
+            try {
+                finished.addAll(checkpoint.restore(part, this.zip(), file));
+            } catch (IOException e) {
+                throw new IllegalStateException("EXCEL文件续传失败:" + fileName, e);
+            }
+        }
     }
     /**
      * 编码文件名
@@ -82,9 +154,15 @@ public class ExcelExportUtils<T> {
      *
      * @return 文件名
      */
+    @Override
     public String getFileName() {
         return fileName;
     }
+
+    @Override
+    public ExcelExportPlan getPlan() {
+        return plan;
+    }
     /**
      * 获取下载路径
      *
@@ -102,244 +180,340 @@ public class ExcelExportUtils<T> {
     }
 
     public void buildWorkBook() {
-        this.book = new SXSSFWorkbook(MAX_EXPORT_COUNT);
+        this.book = new SXSSFWorkbook(rowWindow);
+        // 临时文件使用gzip压缩，减少大批量导出时的磁盘占用
+        this.book.setCompressTempFiles(true);
+        this.styles = new ExcelStylePool(book);
     }
 
     public SXSSFSheet buildSheet(int start) {
-        return book.createSheet(((start * MAX_EXPORT_COUNT)+1)+"-"+((start+1)* MAX_EXPORT_COUNT));
+        return this.buildSheet(start, MAX_EXPORT_COUNT);
+    }
+
+    /**
+     * 按页序创建工作表,以行号区间命名
+     *
+     * @param start 页序,从0开始
+     * @param size 每页条数
+     */
+    public synchronized SXSSFSheet buildSheet(int start, int size) {
+        return book.createSheet(sheetName(start, size));
+    }
+
+    /**
+     * 分页工作表名,以行号区间命名
+     *
+     * @param start 页序,从0开始
+     * @param size 每页条数
+     */
+    public static String sheetName(int start, int size) {
+        return ((start * size)+1)+"-"+((start+1)* size);
     }
     public synchronized SXSSFSheet buildSheet(String name) {
         return book.createSheet(name);
     }
 
-    public String make() {
-        FileOutputStream out = null;
+    @Override
+    public synchronized Write createSheet(String name) {
+        boolean restored = checkpoint != null && checkpoint.isRestored(book.getNumberOfSheets());
+        Write write = new Write(buildSheet(name), plan);
+        if (restored) {
+            // 已从上次的输出文件中恢复,只写入标题以生成相同的样式
+            write.open();
+            write.closed = true;
+        }
+        return write;
+    }
+
+    @Override
+    public synchronized String make() {
+        File part = new File(filePath + ".part");
+        File template = null;
         try {
-            out = new FileOutputStream(filePath);
-            book.write(out);
+            // 补齐尚未结束的工作表
+            for (Sheet sheet : book) {
+                this.finish((SXSSFSheet) sheet);
+            }
+            // 工作簿的其余部件取自POI生成的模板,模板中的工作表只有标题等结构,体量很小
+            template = TempFile.createTempFile("poi-sxssf-template", ".xlsx");
+            try (FileOutputStream os = new FileOutputStream(template)) {
+                book.getXSSFWorkbook().write(os);
+            }
+            ZipOutputStream zip = this.zip();
+            try (ZipFile source = new ZipFile(template)) {
+                Enumeration<? extends ZipEntry> entries = source.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    if (finished.contains(entry.getName())) {
+                        continue;
+                    }
+                    zip.putNextEntry(new ZipEntry(entry.getName()));
+                    try (InputStream in = source.getInputStream(entry)) {
+                        IOUtils.copy(in, zip);
+                    }
+                    zip.closeEntry();
+                }
+            }
+            this.zip = null;
+            zip.close();
+            if (!part.renameTo(new File(filePath))) {
+                throw new IOException("重命名失败:" + part);
+            }
         } catch (Exception e) {
             log.error("EXCEL文件生成失败:{}",e.getMessage());
+            if (zip != null) {
+                try {
+                    zip.close();
+                } catch (IOException e1) {
+                    log.error("EXCEL文件资源关闭失败:{}",fileName);
+                }
+            }
+            part.delete();
             throw new RuntimeException("EXCEL文件生成失败");
         } finally {
+            if (template != null && !template.delete()) {
+                log.warn("EXCEL模板临时文件删除失败:{}", template);
+            }
             if (book != null) {
+                // 清理工作表临时文件
+                book.dispose();
                 try {
                     book.close();
                 } catch (IOException e1) {
                     log.error("EXCEL对象资源关闭失败:{}",fileName);
                 }
             }
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (IOException e1) {
-                    log.error("EXCEL文件资源关闭失败:{}",fileName);
-                }
-            }
         }
         return fileName;
     }
-    public void build(List<T> list, SXSSFSheet sheet) {
-        this.build(list, sheet, fields);
-    }
-    private void build(List<T> list, SXSSFSheet sheet, List<Field> fields) {
-        Write write = this.build(sheet, fields);
-        write.append(list);
-        write.close();
-    }
-    public Write build(SXSSFSheet sheet, List<Field> fields) {
-        // 标题行
-        Row row = sheet.createRow(0);
-        int excelsNo = 0;
-        // 写入各个字段的列头名称
-        for (int column = 0; column < fields.size(); column++) {
-            Field field = fields.get(column);
-            if (field.isAnnotationPresent(Excel.class)) {
-                Excel excel = field.getAnnotation(Excel.class);
-                createCell(sheet, excel, row, column);
+
+    /**
+     * 结束一个工作表:刷写剩余的行,与工作表结构(列宽、合并、数据有效性等)一起压缩写入输出文件,之后不能再写入该工作表
+     *
+     * @param sheet 工作表
+     */
+    public synchronized void finish(SXSSFSheet sheet) {
+        XSSFSheet structure = book.getXSSFWorkbook().getSheetAt(book.getSheetIndex(sheet));
+        String entry = structure.getPackagePart().getPartName().getName().substring(1);
+        if (finished.contains(entry)) {
+            return;
+        }
+        try {
+            String xml = structure(structure);
+            // 与SXSSFWorkbook.write相同,把临时文件中的行数据注入到sheetData中
+            int start = xml.indexOf("<sheetData");
+            int end = xml.startsWith("<sheetData/>", start) ? start + "<sheetData/>".length()
+                    : xml.indexOf("</sheetData>", start) + "</sheetData>".length();
+            ZipOutputStream zip = this.zip();
+            zip.putNextEntry(new ZipEntry(entry));
+            zip.write(xml.substring(0, start).concat("<sheetData>").getBytes(StandardCharsets.UTF_8));
+            try (InputStream data = sheet.getWorksheetXMLInputStream()) {
+                IOUtils.copy(data, zip);
             }
-            if (field.isAnnotationPresent(Excels.class)) {
-                Excels attrs = field.getAnnotation(Excels.class);
-                Excel[] excels = attrs.value();
-                // 写入列名
-                Excel excel = excels[excelsNo++];
-                createCell(sheet, excel, row, column);
+            zip.write("</sheetData>".concat(xml.substring(end)).getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+            if (checkpoint != null) {
+                ExportCheckpoint.sync(file);
             }
+            finished.add(entry);
+        } catch (IOException e) {
+            throw new IllegalStateException("EXCEL工作表写入失败:" + sheet.getSheetName(), e);
         }
-        CellStyle cs = book.createCellStyle();
-        cs.setAlignment(HorizontalAlignment.CENTER);
-        cs.setVerticalAlignment(VerticalAlignment.CENTER);
-        Excel[] excels = new Excel[fields.size()];
-        Integer datum = null;
-        List<Integer> mergeColumn = new ArrayList<>();
-        for (int column = 0; column < fields.size(); column++) {
-            // 获得field.
-            Field field = fields.get(column);
-            // 设置实体类私有属性可访问
-            field.setAccessible(true);
-            if (field.isAnnotationPresent(Excel.class)) {
-                excels[column] = field.getAnnotation(Excel.class);
-                if (excels[column].datum()) {
-                    datum = column;
-                }
-                if (excels[column].mergeRow()) {
-                    mergeColumn.add(column);
-                }
-            }
+    }
+
+    private ZipOutputStream zip() throws IOException {
+        if (zip == null) {
+            file = new FileOutputStream(filePath + ".part");
+            zip = new ZipOutputStream(file);
+            zip.setLevel(Deflater.BEST_SPEED);
+        }
+        return zip;
+    }
+
+    /**
+     * 工作表结构的XML,与XSSFSheet保存时的输出一致
+     */
+    private static String structure(XSSFSheet sheet) throws IOException {
+        CTWorksheet worksheet = sheet.getCTWorksheet();
+        // 空的列宽定义不输出
+        if (worksheet.sizeOfColsArray() == 1 && worksheet.getColsArray(0).sizeOfColArray() == 0) {
+            worksheet.removeCols(0);
         }
-        SlowSign slow = new SlowSign(mergeColumn, sheet);
+        XmlOptions options = new XmlOptions(POIXMLTypeLoader.DEFAULT_XML_OPTIONS);
+        options.setSaveSyntheticDocumentElement(new QName(CTWorksheet.type.getName().getNamespaceURI(), "worksheet"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        worksheet.save(out, options);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
 
-        return new Write(sheet, datum, excels, slow, cs, fields);
+    public void build(List<T> list, SXSSFSheet sheet) {
+        this.build(this.prepare(list), sheet);
+    }
+
+    /**
+     * 预先取值并格式化一批数据,不涉及工作簿,可在任意线程中并行执行
+     *
+     * @param list 数据
+     * @return 行数据缓冲
+     */
+    @Override
+    public RowBuffer prepare(List<?> list) {
+        return RowBuffer.of(plan, list);
     }
-    public class Write {
-        private final Sheet sheet;
-        private final Integer datum;
-        private final Excel[] excels;
-        private final SlowSign slow;
-        private final CellStyle cs;
-        private final List<Field> fields;
+
+    /**
+     * 将预先格式化好的数据写入工作表,同一工作簿只能由单个线程调用
+     *
+     * @param buffer 行数据缓冲
+     * @param sheet 工作表
+     */
+    public void build(RowBuffer buffer, SXSSFSheet sheet) {
+        Write write = this.build(sheet, buffer.getPlan());
+        write.append(buffer);
+        write.close();
+    }
+    public Write build(SXSSFSheet sheet, ExcelExportPlan plan) {
+        Write write = new Write(sheet, plan);
+        write.open();
+        return write;
+    }
+    public class Write implements ExportWriter.SheetWriter {
+        private final SXSSFSheet sheet;
+        private final ExcelExportPlan plan;
+        private final ExcelExportPlan.Column datum;
+        private final ExcelExportPlan.Column[] columns;
+        /**
+         * 按行合并的区间,工作表结束时一次性写入
+         */
+        private final MergeSpans spans = new MergeSpans();
+        /**
+         * 各列的数据样式,写入标题后取自样式池
+         */
+        private CellStyle[] cs;
+        /**
+         * 逐行写入的列下标:全部数据列,以及被合并覆盖时仍需写入的列
+         */
+        private final int[] active;
+        private final int[] uncovered;
+        /**
+         * 数据行行高(缇),小于0时不设置
+         */
+        private final short height;
+        /**
+         * 逐条追加时复用的缓冲
+         */
+        private final RowBuffer buffer;
 
         private int rowNum = 1;
-        public Write(Sheet sheet, Integer datum, Excel[] excels, SlowSign slow, CellStyle cs, List<Field> fields) {
+        private boolean closed;
+        public Write(SXSSFSheet sheet, ExcelExportPlan plan) {
             this.sheet = sheet;
-            this.datum = datum;
-            this.excels = excels;
-            this.slow = slow;
-            this.cs = cs;
-            this.fields = fields;
+            this.plan = plan;
+            this.datum = plan.getDatum();
+            this.columns = plan.getColumns();
+            boolean[] merged = new boolean[columns.length];
+            for (int column : plan.getMergeColumns()) {
+                merged[column] = true;
+            }
+            ExcelExportPlan.Column[] exports = plan.getExportColumns();
+            this.active = Arrays.stream(exports).mapToInt(ExcelExportPlan.Column::getIndex).toArray();
+            this.uncovered = Arrays.stream(active).filter(column -> !merged[column]).toArray();
+            this.height = plan.getRowHeight() < 0 ? -1 : (short) (plan.getRowHeight() * 20);
+            this.buffer = new RowBuffer(plan, 16);
         }
+
+        /**
+         * 写入标题行
+         */
+        void open() {
+            if (cs != null) {
+                return;
+            }
+            // 标题行
+            Row row = sheet.createRow(0);
+            // 写入各个字段的列头名称
+            for (ExcelExportPlan.Column column : columns) {
+                createCell(sheet, column.getAttr(), row, column.getIndex());
+            }
+            cs = new CellStyle[columns.length];
+            for (ExcelExportPlan.Column column : columns) {
+                cs[column.getIndex()] = styles.body(column.getAttr());
+            }
+        }
+
+        @Override
         public int size() {
             return rowNum - 1;
         }
 
         public void append(Object rowData) {
-            Row row = sheet.createRow(rowNum);
-            // 是否需要合并
-            if (datum != null) {
-                try{
-                    String val = String.valueOf(getTargetValue((T)rowData, fields.get(datum), excels[datum]));
-                    slow.merge(val, rowNum);
-                } catch (Exception e) {
-                    log.error("导出Excel失败{},{}", e.getMessage(), JSONObject.toJSONString(e.getStackTrace()));
-                    return;
-                }
-            }
-            for (int column = 0; column < fields.size(); column++) {
-                if (excels[column] == null) {
-                    continue;
-                }
-                addCell(excels[column], row, (T)rowData, fields.get(column), column, cs);
-            }
-            rowNum++;
+            buffer.clear();
+            buffer.add(rowData);
+            this.append(buffer);
         }
         public void append(List<?> data) {
-            for (Object rowData : data) { this.append(rowData); }
+            buffer.clear();
+            buffer.addAll(data);
+            this.append(buffer);
         }
 
-        public void close() {
-            if (datum != null) { slow.endMerge(); }
-        }
-    }
-
-    public List<Field> buildExcelField(Class<?> clazz) {
-        ArrayList<Field> fields = new ArrayList<>();
-        List<Field> tempFields = new ArrayList<>();
-        tempFields.addAll(Arrays.asList(clazz.getSuperclass().getDeclaredFields()));
-        tempFields.addAll(Arrays.asList(clazz.getDeclaredFields()));
-        for (Field field : tempFields) {
-            // 单注解
-            if (field.isAnnotationPresent(Excel.class)) {
-                Excel attr = field.getAnnotation(Excel.class);
-                if (attr != null && (attr.type() == Excel.Type.ALL || attr.type() == Excel.Type.EXPORT)) {
-                    fields.add(field);
-                }
+        @Override
+        public void append(RowBuffer data) {
+            if (closed) {
+                throw new IllegalStateException("工作表已结束写入:" + sheet.getSheetName());
             }
-
-            // 多注解
-            if (field.isAnnotationPresent(Excels.class)) {
-                Excels attrs = field.getAnnotation(Excels.class);
-                Excel[] excels = attrs.value();
-                for (Excel excel : excels) {
-                    if (excel != null && (excel.type() == Excel.Type.ALL || excel.type() == Excel.Type.EXPORT)) {
-                        fields.add(field);
-                    }
+            this.open();
+            for (int r = 0; r < data.size(); r++) {
+                Row row = sheet.createRow(rowNum);
+                if (height >= 0) {
+                    row.setHeight(height);
                 }
+                // 被合并覆盖的单元格不写入，已刷写到临时文件的行无法再回头删除
+                boolean covered = datum != null && spans.next(data.key(r), rowNum);
+                for (int column : covered ? uncovered : active) {
+                    addCell(row, column, data, r, cs[column]);
+                }
+                rowNum++;
             }
         }
-        return fields;
-    }
-
-    private void buildExcelField() {
-        this.fields = this.buildExcelField(clazz);
-    }
 
-    /**
-     * 添加单元格
-     */
-    public void addCell(Excel attr, Row row, T vo, Field field, int column, CellStyle cs) {
-        Cell cell;
-        try {
-            // 设置行高
-            row.setHeight((short) (attr.height() * 20));
-            // 根据Excel中设置情况决定是否导出,有些情况需要保持为空,希望用户填写这一列.
-            if (attr.isExport()) {
-                // 创建cell
-                cell = row.createCell(column);
-                cell.setCellStyle(cs);
-
-                // 用于读取对象中的属性
-                Object value = getTargetValue(vo, field, attr);
-                String dateFormat = attr.dateFormat();
-                boolean isDecimalFormat = attr.isDecimalFormat();
-                if (value instanceof Date) {
-                    cell.setCellValue(new SimpleDateFormat(dateFormat).format((Date)value));
-                } else if (isDecimalFormat) {
-                    if (value == null) {
-                        cell.setCellValue(0);
-                    } else {
-                        cell.setCellValue((new BigDecimal(value.toString())).stripTrailingZeros().toPlainString());
-                    }
-                } else {
-                    cell.setCellType(attr.cellType());
-                    if (value == null) {
-                        cell.setCellValue(attr.defaultValue());
-                    } else {
-                        switch (attr.cellType()) {
-                            case NUMERIC:
-                                cell.setCellValue(Double.parseDouble(String.valueOf(value)));
-                                break;
-                            default:
-                                cell.setCellValue(value + attr.suffix());
-                        }
+        /**
+         * 结束写入:登记合并区间后立即把工作表写入输出文件
+         */
+        @Override
+        public void close() {
+            this.open();
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (datum != null) {
+                spans.end();
+                for (int i = 0; i < spans.size(); i++) {
+                    for (int column : plan.getMergeColumns()) {
+                        sheet.addMergedRegionUnsafe(new CellRangeAddress(spans.firstRow(i), spans.lastRow(i), column, column));
                     }
                 }
             }
-        } catch (Exception e) {
-            log.error("导出Excel失败{},{}", e.getMessage(), JSONObject.toJSONString(e.getStackTrace()));
+            finish(sheet);
         }
     }
 
     /**
-     * 获取bean中的属性值
-     *
-     * @param vo    实体对象
-     * @param field 字段
-     * @param excel 注解
-     * @return 最终的属性值
+     * 添加单元格
      */
-    private Object getTargetValue(T vo, Field field, Excel excel) throws Exception {
-        Object o = field.get(vo);
-        if (!StringUtils.isEmpty(excel.targetAttr())) {
-            String target = excel.targetAttr();
-            if (target.contains(".")) {
-                String[] targets = target.split("[.]");
-                for (String name : targets) {
-                    o = getValue(o, name);
-                }
-            } else {
-                o = getValue(o, target);
-            }
+    private static void addCell(Row row, int column, RowBuffer data, int r, CellStyle cs) {
+        Cell cell = row.createCell(column);
+        cell.setCellStyle(cs);
+        switch (data.kind(r, column)) {
+            case RowBuffer.NUMBER:
+                cell.setCellValue(data.number(r, column));
+                break;
+            case RowBuffer.TEXT:
+                cell.setCellValue(data.text(r, column));
+                break;
+            default:
         }
-        return o;
     }
 
     /**
@@ -360,23 +534,6 @@ public class ExcelExportUtils<T> {
         return propertyValue;
     }
 
-    /**
-     * 以类的属性的get方法方法形式获取值
-     *
-     * @param o 属性对象
-     * @param name 属性名
-     * @return value 值
-     */
-    private Object getValue(Object o, String name) throws Exception {
-        if (!StringUtils.isEmpty(name)) {
-            Class<?> clazz = o.getClass();
-            String methodName = "get" + name.substring(0, 1).toUpperCase() + name.substring(1);
-            Method method = clazz.getMethod(methodName);
-            o = method.invoke(o);
-        }
-        return o;
-    }
-
     /**
      * 创建单元格
      */
@@ -395,27 +552,15 @@ public class ExcelExportUtils<T> {
      * 创建表格样式
      */
     public CellStyle createStyle(Sheet sheet, Excel attr, Row row, int column) {
-        CellStyle cellStyle = book.createCellStyle();
-        cellStyle.setAlignment(HorizontalAlignment.CENTER);
-        cellStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-        Font font = book.createFont();
+        // 样式取自工作簿样式池,所有工作表共用
+        CellStyle cellStyle = styles.header(attr);
         if (attr.name().contains("注：")) {
-            font.setColor(HSSFFont.COLOR_RED);
-            cellStyle.setFont(font);
-            cellStyle.setFillForegroundColor(HSSFColor.HSSFColorPredefined.YELLOW.getIndex());
             sheet.setColumnWidth(column, 6000);
         } else {
-            // 粗体显示
-            font.setBold(true);
-            // 选择需要用到的字体格式
-            cellStyle.setFont(font);
-            cellStyle.setFillForegroundColor(HSSFColor.HSSFColorPredefined.LIGHT_YELLOW.getIndex());
             // 设置列宽
             sheet.setColumnWidth(column, (int) ((attr.width() + 0.72) * 256));
             row.setHeight((short) (attr.height() * 20));
         }
-        cellStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-        cellStyle.setWrapText(true);
         // 如果设置了提示信息则鼠标放上去提示.
         if (!StringUtils.isEmpty(attr.prompt())) {
             // 这里默认设了2-101列提示.
@@ -481,52 +626,63 @@ public class ExcelExportUtils<T> {
         sheet.addValidationData(dataValidation);
     }
 
-    static class SlowSign {
-        int startRow;
-        String lastValue;
-        int lastRow;
-        List<Integer> columns;
-        SXSSFSheet sheet;
-        SlowSign(List<Integer> columns, SXSSFSheet sheet) {
-            this.lastValue = "";
-            this.columns = columns;
-            this.sheet = sheet;
-        }
-        public void merge(String value, int row) {
-            if (!lastValue.equals(value)) {
-                if (startRow != lastRow) {
-                    this.setMerge();
-                }
-                lastValue = value == null ? "" : value;
-                startRow = row;
-            }
-            this.lastRow = row;
-        }
-
-        public void endMerge() {
-            if (startRow != lastRow) {
-                this.setMerge();
-            }
-        }
-
-        private void setMerge() {
-            for (Integer column : columns) {
-                CellRangeAddress mergeAddress = new CellRangeAddress(startRow, lastRow, column, column);
-                sheet.addMergedRegionUnsafe(mergeAddress);
-                // 删除被合并cell,暂时不知道为什么设置addMergedRegionUnsafe不会清除所属cell，所以需要手动删除一下
-                for (int i = startRow+1; i <= lastRow; i++) {
-                    sheet.getRow(i).removeCell(sheet.getRow(i).getCell(column));
-                }
-            }
-        }
-    }
-
-
     /**
      *  Excel相关的任务缓存工具类
+     *  <p>
+     *  任务以 文件名 -&gt; "已完成片段/总片段" 的形式保存在用户的hash中,统一按字符串读写,与RedisTemplate的序列化配置无关
+     *  <p>
+     *  任务与行数的KEY以用户ID作为hash tag(user:export:task:{id}),在Redis Cluster中位于同一个slot,可以在同一个脚本中读写
      */
     public static class ExcelTaskUtil {
         private static long EXPIRE = 86500;// 过期时间
+        private static final RedisSerializer<String> STRING = RedisSerializer.string();
+        private static final String USER_EXPORT_TASK_PREFIX = "user:export:task:";
+        private static final String USER_EXPORT_ROWS_PREFIX = "user:export:rows:";
+        /**
+         * 任务进度变更的发布频道,消息为JSON:userId、fileName、progress(已完成片段数/片段总数)、rows(已写入行数),
+         * 任务被移除时progress为空
+         */
+        public static final String PROGRESS_CHANNEL = "user:export:progress";
+        /**
+         * 原子地推进片段进度(ARGV[4]为推进的片段数,0只累计行数)并累计行数(ARGV[5]),同时发布进度变更:
+         * 只有恰好完成最后一个片段的调用返回1,其余返回0,任务不存在返回-1
+         */
+        private static final byte[] SCHEDULE_SCRIPT = STRING.serialize(
+                "local v = redis.call('HGET', KEYS[1], ARGV[1]) " +
+                "if not v then return -1 end " +
+                "local i = string.find(v, '/', 1, true) " +
+                "if not i then return -1 end " +
+                "local step = tonumber(ARGV[4]) " +
+                "local current = tonumber(string.sub(v, 1, i - 1)) + step " +
+                "local count = tonumber(string.sub(v, i + 1)) " +
+                "local progress = current .. '/' .. count " +
+                "if step > 0 then redis.call('HSET', KEYS[1], ARGV[1], progress) end " +
+                "redis.call('EXPIRE', KEYS[1], ARGV[2]) " +
+                "local rows = redis.call('HINCRBY', KEYS[2], ARGV[1], ARGV[5]) " +
+                "redis.call('EXPIRE', KEYS[2], ARGV[2]) " +
+                "redis.call('PUBLISH', '" + PROGRESS_CHANNEL + "', cjson.encode({userId = tonumber(ARGV[3]), " +
+                "fileName = ARGV[1], progress = progress, rows = rows})) " +
+                "if step > 0 and current == count then return 1 end " +
+                "return 0");
+        /**
+         * 原子地改写片段总数(ARGV[4]),保留已完成片段数并发布进度变更:
+         * 改写后已完成片段数恰好等于总数时返回1,否则返回0,任务不存在返回-1
+         */
+        private static final byte[] TOTAL_SCRIPT = STRING.serialize(
+                "local v = redis.call('HGET', KEYS[1], ARGV[1]) " +
+                "if not v then return -1 end " +
+                "local i = string.find(v, '/', 1, true) " +
+                "if not i then return -1 end " +
+                "local current = tonumber(string.sub(v, 1, i - 1)) " +
+                "local count = tonumber(ARGV[4]) " +
+                "local progress = current .. '/' .. count " +
+                "redis.call('HSET', KEYS[1], ARGV[1], progress) " +
+                "redis.call('EXPIRE', KEYS[1], ARGV[2]) " +
+                "local rows = tonumber(redis.call('HGET', KEYS[2], ARGV[1]) or '0') " +
+                "redis.call('PUBLISH', '" + PROGRESS_CHANNEL + "', cjson.encode({userId = tonumber(ARGV[3]), " +
+                "fileName = ARGV[1], progress = progress, rows = rows})) " +
+                "if current == count then return 1 end " +
+                "return 0");
 
         /**
          * REDIS缓存KEY值
@@ -535,7 +691,29 @@ public class ExcelExportUtils<T> {
          * @return KEY值
          */
         static String USER_EXPORT_TASK(Long id) {
-            return "user:export:task:".concat(String.valueOf(id));
+            return USER_EXPORT_TASK_PREFIX + '{' + id + '}';
+        }
+
+        /**
+         * 任务已写入行数的REDIS缓存KEY值
+         *
+         * @param id 用户ID
+         * @return KEY值
+         */
+        static String USER_EXPORT_ROWS(Long id) {
+            return USER_EXPORT_ROWS_PREFIX + '{' + id + '}';
+        }
+
+        /**
+         * 进度变更消息
+         */
+        private static byte[] progressMessage(Long id, String fileName, String progress, long rows) {
+            JSONObject message = new JSONObject();
+            message.put("userId", id);
+            message.put("fileName", fileName);
+            message.put("progress", progress);
+            message.put("rows", rows);
+            return STRING.serialize(message.toJSONString());
         }
 
         /**
@@ -547,13 +725,55 @@ public class ExcelExportUtils<T> {
          * @param countGroup 最大执行总量组
          */
         public static void addExportFile(RedisTemplate<String, Object> redisTemplate, String fileName, Long id, int countGroup) {
-            String key = USER_EXPORT_TASK(id);
-            if (!redisTemplate.hasKey(key)) {
-                redisTemplate.opsForHash().putAll(key, new HashMap<>(16));
-            }
-            redisTemplate.opsForHash().put(key, fileName, "0/".concat(String.valueOf(countGroup)));
-            // 文件一天过期，缓存信息一天过期 不过期也会被系统清理
-            redisTemplate.expire(key, EXPIRE, TimeUnit.SECONDS);
+            byte[] key = STRING.serialize(USER_EXPORT_TASK(id));
+            String progress = "0/".concat(String.valueOf(countGroup));
+            // 写入、续期与进度发布合并为一次往返
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                connection.hSet(key, STRING.serialize(fileName), STRING.serialize(progress));
+                // 文件一天过期，缓存信息一天过期 不过期也会被系统清理
+                connection.expire(key, EXPIRE);
+                connection.publish(STRING.serialize(PROGRESS_CHANNEL), progressMessage(id, fileName, progress, 0));
+                return null;
+            });
+        }
+
+        /**
+         * 更新任务进度,用于总量在执行中才能确定的任务(如导入)
+         *
+         * @param redisTemplate 缓存服务
+         * @param fileName 任务名
+         * @param id 用户ID
+         * @param current 已完成量
+         * @param count 总量
+         */
+        public static void updateTask(RedisTemplate<String, Object> redisTemplate, String fileName, Long id, long current, long count) {
+            resumeExportFile(redisTemplate, fileName, id, current, count, current);
+        }
+
+        /**
+         * 重新登记续传的任务:进度为已恢复的片段数,行数为已恢复片段的行数
+         *
+         * @param redisTemplate 缓存服务
+         * @param fileName 文件名
+         * @param id 用户ID
+         * @param current 已完成量
+         * @param count 总量
+         * @param rows 已写入行数
+         */
+        public static void resumeExportFile(RedisTemplate<String, Object> redisTemplate, String fileName, Long id,
+                                            long current, long count, long rows) {
+            byte[] key = STRING.serialize(USER_EXPORT_TASK(id));
+            byte[] rowsKey = STRING.serialize(USER_EXPORT_ROWS(id));
+            byte[] field = STRING.serialize(fileName);
+            String progress = current + "/" + count;
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                connection.hSet(key, field, STRING.serialize(progress));
+                connection.expire(key, EXPIRE);
+                connection.hSet(rowsKey, field, STRING.serialize(String.valueOf(rows)));
+                connection.expire(rowsKey, EXPIRE);
+                connection.publish(STRING.serialize(PROGRESS_CHANNEL), progressMessage(id, fileName, progress, rows));
+                return null;
+            });
         }
 
         /**
@@ -562,22 +782,63 @@ public class ExcelExportUtils<T> {
          * @param redisTemplate 缓存服务
          * @param fileName 文件名
          * @param id 用户ID
-         * @return 任务是否全部执行完成
+         * @return 是否由本次调用完成了最后一个片段,并发调用时只有一个会返回true
          */
         public static boolean scheduleExportFile(RedisTemplate<String, Object> redisTemplate, String fileName, Long id) {
-            String key = USER_EXPORT_TASK(id);
-            String val = (String)redisTemplate.opsForHash().get(key, fileName);
-            if (val != null) {
-                String[] arr = val.split("/");
-                int current = Integer.parseInt(arr[0])+1;
-                int count = Integer.parseInt(arr[1]);
-
-                redisTemplate.opsForHash().put(key, fileName, current+"/"+count);
-                // 文件一天过期，缓存信息一天过期 不过期也会被系统清理
-                redisTemplate.expire(key, EXPIRE, TimeUnit.SECONDS);
-                return current >= count;
-            }
-            return false;
+            return scheduleExportFile(redisTemplate, fileName, id, 0);
+        }
+
+        /**
+         * 执行计划导出文件/片段执行结果,同时累计片段写入的行数
+         *
+         * @param redisTemplate 缓存服务
+         * @param fileName 文件名
+         * @param id 用户ID
+         * @param rows 片段写入的行数
+         * @return 是否由本次调用完成了最后一个片段,并发调用时只有一个会返回true
+         */
+        public static boolean scheduleExportFile(RedisTemplate<String, Object> redisTemplate, String fileName, Long id, long rows) {
+            return schedule(redisTemplate, fileName, id, 1, rows) == 1;
+        }
+
+        /**
+         * 改写任务的片段总数,用于执行中才确定总数的分页导出:总数未确定时需大于已完成片段数,确定后改写为实际总数
+         *
+         * @param redisTemplate 缓存服务
+         * @param fileName 文件名
+         * @param id 用户ID
+         * @param count 片段总数
+         * @return 改写后是否已完成全部片段(确定总数时最后一个片段已完成),并发调用时与片段完成只有一个会返回true
+         */
+        public static boolean resizeExportFile(RedisTemplate<String, Object> redisTemplate, String fileName, Long id, int count) {
+            byte[] key = STRING.serialize(USER_EXPORT_TASK(id));
+            byte[] rowsKey = STRING.serialize(USER_EXPORT_ROWS(id));
+            Long result = redisTemplate.execute((RedisCallback<Long>) connection -> connection.eval(TOTAL_SCRIPT,
+                    ReturnType.INTEGER, 2, key, rowsKey, STRING.serialize(fileName), STRING.serialize(String.valueOf(EXPIRE)),
+                    STRING.serialize(String.valueOf(id)), STRING.serialize(String.valueOf(count))));
+            return result != null && result == 1;
+        }
+
+        /**
+         * 只累计已写入的行数,不推进片段进度,用于片段内的进度(如游标导出)
+         *
+         * @param redisTemplate 缓存服务
+         * @param fileName 文件名
+         * @param id 用户ID
+         * @param rows 新写入的行数
+         */
+        public static void addExportRows(RedisTemplate<String, Object> redisTemplate, String fileName, Long id, long rows) {
+            schedule(redisTemplate, fileName, id, 0, rows);
+        }
+
+        private static long schedule(RedisTemplate<String, Object> redisTemplate, String fileName, Long id, int step, long rows) {
+            byte[] key = STRING.serialize(USER_EXPORT_TASK(id));
+            byte[] rowsKey = STRING.serialize(USER_EXPORT_ROWS(id));
+            Long result = redisTemplate.execute((RedisCallback<Long>) connection -> connection.eval(SCHEDULE_SCRIPT,
+                    ReturnType.INTEGER, 2, key, rowsKey, STRING.serialize(fileName), STRING.serialize(String.valueOf(EXPIRE)),
+                    STRING.serialize(String.valueOf(id)), STRING.serialize(String.valueOf(step)),
+                    STRING.serialize(String.valueOf(rows))));
+            return result == null ? -1 : result;
         }
 
         /**
@@ -588,11 +849,32 @@ public class ExcelExportUtils<T> {
          * @return 任务列表
          */
         public static Map<Object, Object> getExportTask(RedisTemplate<String, Object> redisTemplate, Long id) {
-            String key = USER_EXPORT_TASK(id);
-            if (!redisTemplate.hasKey(key)) {
+            byte[] key = STRING.serialize(USER_EXPORT_TASK(id));
+            Map<byte[], byte[]> entries = redisTemplate.execute((RedisCallback<Map<byte[], byte[]>>) connection -> connection.hGetAll(key));
+            if (entries == null) {
+                return new HashMap<>(0);
+            }
+            Map<Object, Object> tasks = new HashMap<>(entries.size() * 2);
+            entries.forEach((k, v) -> tasks.put(STRING.deserialize(k), STRING.deserialize(v)));
+            return tasks;
+        }
+
+        /**
+         * 获取用户下全部任务已写入的行数
+         *
+         * @param redisTemplate 缓存服务
+         * @param id 用户ID
+         * @return 文件名 -> 行数
+         */
+        public static Map<String, Long> getExportRows(RedisTemplate<String, Object> redisTemplate, Long id) {
+            byte[] key = STRING.serialize(USER_EXPORT_ROWS(id));
+            Map<byte[], byte[]> entries = redisTemplate.execute((RedisCallback<Map<byte[], byte[]>>) connection -> connection.hGetAll(key));
+            if (entries == null) {
                 return new HashMap<>(0);
             }
-            return redisTemplate.opsForHash().entries(key);
+            Map<String, Long> rows = new HashMap<>(entries.size() * 2);
+            entries.forEach((k, v) -> rows.put(STRING.deserialize(k), Long.valueOf(STRING.deserialize(v))));
+            return rows;
         }
 
         /**
@@ -604,13 +886,68 @@ public class ExcelExportUtils<T> {
          * @return 验证结果
          */
         public static boolean verifyTaskExist(RedisTemplate<String, Object> redisTemplate, String fileName, Long userId) {
-            String key = USER_EXPORT_TASK(userId);
-            return redisTemplate.hasKey(key) && redisTemplate.opsForHash().hasKey(key, fileName);
+            byte[] key = STRING.serialize(USER_EXPORT_TASK(userId));
+            return Boolean.TRUE.equals(redisTemplate.execute((RedisCallback<Boolean>) connection ->
+                    connection.hExists(key, STRING.serialize(fileName))));
         }
 
         public static void removeCache(RedisTemplate<String, Object> redisTemplate, String fileName, Long userId) {
-            String key = USER_EXPORT_TASK(userId);
-            redisTemplate.opsForHash().delete(key, fileName);
+            byte[] key = STRING.serialize(USER_EXPORT_TASK(userId));
+            byte[] rowsKey = STRING.serialize(USER_EXPORT_ROWS(userId));
+            byte[] field = STRING.serialize(fileName);
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                connection.hDel(key, field);
+                connection.hDel(rowsKey, field);
+                connection.publish(STRING.serialize(PROGRESS_CHANNEL), progressMessage(userId, fileName, null, 0));
+                return null;
+            });
+        }
+
+        /**
+         * 获取全部用户的导出任务,以SCAN分批遍历KEY,不阻塞缓存服务
+         *
+         * @param redisTemplate 缓存服务
+         * @return 用户ID -> 任务列表(文件名 -> 进度)
+         */
+        public static Map<Long, Map<String, String>> scanExportTasks(RedisTemplate<String, Object> redisTemplate) {
+            ScanOptions options = ScanOptions.scanOptions().match(USER_EXPORT_TASK_PREFIX + "{*}").count(500).build();
+            Map<Long, Map<String, String>> users = redisTemplate.execute((RedisCallback<Map<Long, Map<String, String>>>) connection -> {
+                Map<Long, Map<String, String>> result = new HashMap<>();
+                try (Cursor<byte[]> cursor = connection.scan(options)) {
+                    while (cursor.hasNext()) {
+                        byte[] key = cursor.next();
+                        Long id;
+                        try {
+                            String name = STRING.deserialize(key);
+                            id = Long.valueOf(name.substring(USER_EXPORT_TASK_PREFIX.length() + 1, name.length() - 1));
+                        } catch (NumberFormatException e) {
+                            continue;
+                        }
+                        Map<byte[], byte[]> entries = connection.hGetAll(key);
+                        if (entries == null || entries.isEmpty()) {
+                            continue;
+                        }
+                        Map<String, String> tasks = new HashMap<>(entries.size() * 2);
+                        entries.forEach((k, v) -> tasks.put(STRING.deserialize(k), STRING.deserialize(v)));
+                        result.put(id, tasks);
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                return result;
+            });
+            return users == null ? new HashMap<>(0) : users;
+        }
+
+        /**
+         * 任务进度是否已完成
+         *
+         * @param progress 进度,格式为 已完成片段数/片段总数
+         * @return 全部片段已完成
+         */
+        public static boolean isFinished(String progress) {
+            int i = progress == null ? -1 : progress.indexOf('/');
+            return i > 0 && progress.substring(0, i).equals(progress.substring(i + 1));
         }
     }
 }
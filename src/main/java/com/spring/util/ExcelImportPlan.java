@@ -0,0 +1,257 @@
+package com.spring.util;
+
+import com.spring.annotation.Excel;
+import com.spring.annotation.Excels;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.springframework.util.StringUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 导入计划-按实体类缓存的列元数据
+ * <p>
+ * 与{@link ExcelExportPlan}对应：只解析类型为导入或导入导出({@link Excel.Type#IMPORT}/{@link Excel.Type#ALL})的列，
+ * 每个实体类只在第一次导入时解析一次注解、赋值器(MethodHandle)与类型转换，按列名与标题行对应
+ *
+ * @author Zhendong Zhou
+ */
+public final class ExcelImportPlan {
+    private static final ConcurrentMap<Class<?>, ExcelImportPlan> PLANS = new ConcurrentHashMap<>();
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+
+    /**
+     * 单元格的值类型:文本、数值、带日期格式的数值
+     */
+    static final int TEXT = 0;
+    static final int NUMBER = 1;
+    static final int DATE = 2;
+
+    /**
+     * 获取实体类的导入计划
+     *
+     * @param clazz 实体类
+     * @return 导入计划
+     */
+    public static ExcelImportPlan of(Class<?> clazz) {
+        return PLANS.computeIfAbsent(clazz, ExcelImportPlan::new);
+    }
+
+    private final Class<?> clazz;
+    private final MethodHandle constructor;
+    /**
+     * 列名 -> 导入列
+     */
+    private final Map<String, Column> columns = new HashMap<>();
+
+    private ExcelImportPlan(Class<?> clazz) {
+        this.clazz = clazz;
+        try {
+            Constructor<?> init = clazz.getDeclaredConstructor();
+            init.setAccessible(true);
+            this.constructor = LOOKUP.unreflectConstructor(init).asType(CONSTRUCTOR_TYPE);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException("导入对象缺少无参构造器:" + clazz.getName(), e);
+        }
+        List<Field> tempFields = new ArrayList<>();
+        if (clazz.getSuperclass() != null) {
+            tempFields.addAll(Arrays.asList(clazz.getSuperclass().getDeclaredFields()));
+        }
+        tempFields.addAll(Arrays.asList(clazz.getDeclaredFields()));
+        for (Field field : tempFields) {
+            List<Excel> attrs = new ArrayList<>();
+            if (field.isAnnotationPresent(Excel.class)) {
+                attrs.add(field.getAnnotation(Excel.class));
+            }
+            if (field.isAnnotationPresent(Excels.class)) {
+                attrs.addAll(Arrays.asList(field.getAnnotation(Excels.class).value()));
+            }
+            for (Excel attr : attrs) {
+                // 取自其他对象属性(targetAttr)的列无法回填
+                if (isImport(attr) && StringUtils.isEmpty(attr.targetAttr())) {
+                    columns.putIfAbsent(attr.name(), new Column(field, attr));
+                }
+            }
+        }
+    }
+
+    private static boolean isImport(Excel attr) {
+        return attr.type() == Excel.Type.ALL || attr.type() == Excel.Type.IMPORT;
+    }
+
+    public Class<?> getClazz() {
+        return clazz;
+    }
+
+    /**
+     * 按标题行的列名查找导入列
+     *
+     * @param name 列名
+     * @return 导入列,不存在时返回空
+     */
+    public Column column(String name) {
+        return columns.get(name == null ? null : name.trim());
+    }
+
+    /**
+     * 创建一个实体对象
+     */
+    Object newInstance() {
+        try {
+            return constructor.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException("导入对象创建失败:" + clazz.getName(), e);
+        }
+    }
+
+    /**
+     * 单元格值转换,text为单元格的原始值(数值单元格为数字文本),kind为值类型
+     */
+    @FunctionalInterface
+    interface Converter {
+        Object convert(String text, int kind) throws Exception;
+    }
+
+    /**
+     * 导入列-预解析的注解、赋值器与类型转换
+     */
+    public static final class Column {
+        private final Field field;
+        private final Excel attr;
+        private final MethodHandle setter;
+        private final Converter converter;
+        /**
+         * 非文本字段转换前去掉首尾空白
+         */
+        private final boolean trim;
+
+        Column(Field field, Excel attr) {
+            this.field = field;
+            this.attr = attr;
+            try {
+                field.setAccessible(true);
+                this.setter = LOOKUP.unreflectSetter(field).asType(SETTER_TYPE);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("导入列解析失败:" + field.getName(), e);
+            }
+            this.converter = converter(field.getType(), attr);
+            this.trim = field.getType() != String.class;
+        }
+
+        public Field getField() {
+            return field;
+        }
+
+        public Excel getAttr() {
+            return attr;
+        }
+
+        /**
+         * 转换单元格值并写入实体对象,空值与默认值不写入
+         *
+         * @param row 实体对象
+         * @param text 单元格的原始值
+         * @param kind 值类型
+         */
+        void set(Object row, String text, int kind) throws Throwable {
+            if (text.isEmpty() || text.equals(attr.defaultValue())) {
+                return;
+            }
+            String suffix = attr.suffix();
+            if (!suffix.isEmpty() && text.endsWith(suffix)) {
+                text = text.substring(0, text.length() - suffix.length());
+            }
+            Object value = converter.convert(trim ? text.trim() : text, kind);
+            if (value != null) {
+                setter.invokeExact(row, value);
+            }
+        }
+    }
+
+    private static Converter converter(Class<?> type, Excel attr) {
+        if (type == String.class) {
+            DateTimeFormatter formatter = CellWriters.formatter(attr.dateFormat());
+            return (text, kind) -> kind == DATE ? formatter.format(toDateTime(text))
+                    : kind == NUMBER ? new BigDecimal(text).stripTrailingZeros().toPlainString() : text;
+        }
+        if (type == int.class || type == Integer.class) {
+            return (text, kind) -> new BigDecimal(text).intValueExact();
+        }
+        if (type == long.class || type == Long.class) {
+            return (text, kind) -> new BigDecimal(text).longValueExact();
+        }
+        if (type == short.class || type == Short.class) {
+            return (text, kind) -> new BigDecimal(text).shortValueExact();
+        }
+        if (type == byte.class || type == Byte.class) {
+            return (text, kind) -> new BigDecimal(text).byteValueExact();
+        }
+        if (type == double.class || type == Double.class) {
+            return (text, kind) -> Double.parseDouble(text);
+        }
+        if (type == float.class || type == Float.class) {
+            return (text, kind) -> Float.parseFloat(text);
+        }
+        if (type == BigDecimal.class) {
+            return (text, kind) -> new BigDecimal(text);
+        }
+        if (type == boolean.class || type == Boolean.class) {
+            return (text, kind) -> "1".equals(text) || "是".equals(text) || Boolean.parseBoolean(text);
+        }
+        if (Date.class.isAssignableFrom(type) || type == LocalDateTime.class || type == LocalDate.class) {
+            DateTimeFormatter formatter = CellWriters.formatter(attr.dateFormat());
+            return (text, kind) -> {
+                LocalDateTime value = kind == TEXT ? parse(formatter, text) : toDateTime(text);
+                if (type == LocalDateTime.class) {
+                    return value;
+                }
+                if (type == LocalDate.class) {
+                    return value.toLocalDate();
+                }
+                Date result = Date.from(value.atZone(ZoneId.systemDefault()).toInstant());
+                return type == Date.class ? result : type.getConstructor(long.class).newInstance(result.getTime());
+            };
+        }
+        if (type == Object.class) {
+            return (text, kind) -> text;
+        }
+        throw new IllegalStateException("不支持导入的字段类型:" + type.getName() + "(" + attr.name() + ")");
+    }
+
+    /**
+     * 数值单元格按日期序列号转换
+     */
+    private static LocalDateTime toDateTime(String text) {
+        Date date = DateUtil.getJavaDate(Double.parseDouble(text));
+        return LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault());
+    }
+
+    /**
+     * 文本按列的时间格式解析,格式不含时间部分时取当天零点
+     */
+    private static LocalDateTime parse(DateTimeFormatter formatter, String text) {
+        TemporalAccessor parsed = formatter.parse(text);
+        LocalDate date = LocalDate.from(parsed);
+        return parsed.isSupported(ChronoField.HOUR_OF_DAY) ? LocalDateTime.from(parsed) : date.atStartOfDay();
+    }
+}
@@ -0,0 +1,372 @@
+package com.spring.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.util.SAXHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 流式Excel导入工具包
+ * <p>
+ * 通过POI的事件(SAX)接口逐行读取xlsx，不建立工作表的对象模型，内存中只保留共享字符串表与当前一批数据，
+ * 与文件行数无关；按{@link ExcelImportPlan}把各工作表首行的列名对应到实体字段，每凑满一批交给消费者处理(如批量入库)
+ * <p>
+ * 声明了mergeRow的列在导出时按行合并，合并区域中只有首行有值(合并声明位于工作表数据之后，流式读取时尚不可见)，
+ * 因此这些列为空时沿用上一行的值
+ *
+ * @author Zhendong Zhou
+ */
+@Slf4j
+public class ExcelImportUtils<T> {
+    public final static int DEFAULT_BATCH_SIZE = 1000;// 默认每批条数
+
+    private final Class<T> clazz;
+    private final ExcelImportPlan plan;
+    private final int batchSize;
+
+    public ExcelImportUtils(Class<T> clazz) {
+        this(clazz, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param clazz 实体类
+     * @param batchSize 每批条数
+     */
+    public ExcelImportUtils(Class<T> clazz, int batchSize) {
+        this.clazz = clazz;
+        this.plan = ExcelImportPlan.of(clazz);
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * 导入进度
+     */
+    @FunctionalInterface
+    public interface Progress {
+        /**
+         * @param rows 已处理的数据行数
+         * @param total 数据总行数,取自各工作表的尺寸声明,未声明时为-1
+         */
+        void update(long rows, long total);
+    }
+
+    /**
+     * 读取文件
+     *
+     * @param file xlsx文件
+     * @param consumer 每批数据的消费者,在读取线程中依次调用
+     * @param progress 开始时与每批处理完成后回调,可以为空
+     * @return 导入的数据行数
+     */
+    public long read(File file, Consumer<List<T>> consumer, Progress progress) {
+        try (OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ)) {
+            XSSFReader reader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+            StylesTable styles = reader.getStylesTable();
+            long total = this.total(reader);
+            SheetHandler handler = new SheetHandler(strings, styles, consumer, progress, total);
+            if (progress != null) {
+                progress.update(0, total);
+            }
+            XMLReader parser = SAXHelper.newXMLReader();
+            parser.setContentHandler(handler);
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            while (sheets.hasNext()) {
+                try (InputStream sheet = sheets.next()) {
+                    handler.sheet = sheets.getSheetName();
+                    parser.parse(new InputSource(sheet));
+                }
+            }
+            handler.flush();
+            return handler.rows;
+        } catch (IOException | OpenXML4JException | SAXException | ParserConfigurationException e) {
+            log.error("EXCEL文件读取失败:{}", e.getMessage());
+            throw new IllegalStateException("EXCEL文件读取失败:" + file.getName(), e);
+        }
+    }
+
+    /**
+     * 按各工作表开头的尺寸声明估算数据总行数(不含标题行),只读取到尺寸声明为止
+     */
+    private long total(XSSFReader reader) throws IOException, OpenXML4JException, SAXException, ParserConfigurationException {
+        long total = 0;
+        Iterator<InputStream> sheets = reader.getSheetsData();
+        while (sheets.hasNext()) {
+            DimensionHandler handler = new DimensionHandler();
+            XMLReader parser = SAXHelper.newXMLReader();
+            parser.setContentHandler(handler);
+            try (InputStream sheet = sheets.next()) {
+                parser.parse(new InputSource(sheet));
+            } catch (DimensionHandler.Stop ignored) {
+            }
+            if (handler.rows < 0) {
+                return -1;
+            }
+            total += Math.max(0, handler.rows - 1);
+        }
+        return total;
+    }
+
+    /**
+     * 读取工作表的尺寸声明,读到sheetData时停止
+     */
+    private static class DimensionHandler extends DefaultHandler {
+        private long rows = -1;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+            if ("dimension".equals(localName)) {
+                String ref = attributes.getValue("ref");
+                // 只有起始单元格的声明(如SXSSF写出的A1)不代表实际范围
+                if (ref != null && ref.indexOf(':') > 0) {
+                    CellRangeAddress range = CellRangeAddress.valueOf(ref);
+                    rows = range.getLastRow() + 1L;
+                }
+            }
+            if ("dimension".equals(localName) || "sheetData".equals(localName)) {
+                throw new Stop();
+            }
+        }
+
+        private static class Stop extends SAXException {
+        }
+    }
+
+    /**
+     * 工作表内容解析:首行为标题,之后每行生成一个实体对象
+     */
+    private class SheetHandler extends DefaultHandler {
+        private final ReadOnlySharedStringsTable strings;
+        private final StylesTable styles;
+        private final Consumer<List<T>> consumer;
+        private final Progress progress;
+        private final long total;
+        /**
+         * 按样式下标缓存是否为日期格式
+         */
+        private final List<Boolean> dateStyles = new ArrayList<>();
+
+        private String sheet;
+        private List<T> batch;
+        private long rows;
+
+        /**
+         * 当前工作表的列下标 -> 导入列,由标题行确定
+         */
+        private List<ExcelImportPlan.Column> columns = new ArrayList<>();
+        /**
+         * 合并行列的上一行的值与类型,按列下标
+         */
+        private String[] carried = new String[0];
+        private int[] carriedKinds = new int[0];
+        private boolean[] filled = new boolean[0];
+        private boolean header;
+        private int rowNum;
+        private T row;
+        private boolean blank;
+
+        /**
+         * 当前单元格
+         */
+        private int column;
+        private String type;
+        private int style;
+        private boolean value;
+        private final StringBuilder text = new StringBuilder();
+
+        SheetHandler(ReadOnlySharedStringsTable strings, StylesTable styles, Consumer<List<T>> consumer,
+                     Progress progress, long total) {
+            this.strings = strings;
+            this.styles = styles;
+            this.consumer = consumer;
+            this.progress = progress;
+            this.total = total;
+            this.batch = new ArrayList<>(batchSize);
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (localName) {
+                case "sheetData":
+                    header = true;
+                    columns = new ArrayList<>();
+                    rowNum = 0;
+                    break;
+                case "row":
+                    String r = attributes.getValue("r");
+                    rowNum = r == null ? rowNum + 1 : Integer.parseInt(r);
+                    column = -1;
+                    blank = true;
+                    row = header ? null : clazz.cast(plan.newInstance());
+                    Arrays.fill(filled, false);
+                    break;
+                case "c":
+                    String ref = attributes.getValue("r");
+                    column = ref == null ? column + 1 : column(ref);
+                    type = attributes.getValue("t");
+                    String s = attributes.getValue("s");
+                    style = s == null ? 0 : Integer.parseInt(s);
+                    text.setLength(0);
+                    break;
+                case "v":
+                case "t":
+                    value = true;
+                    break;
+                default:
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (value) {
+                text.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            switch (localName) {
+                case "v":
+                case "t":
+                    value = false;
+                    break;
+                case "c":
+                    this.cell();
+                    break;
+                case "row":
+                    if (header) {
+                        header = false;
+                        carried = new String[columns.size()];
+                        carriedKinds = new int[columns.size()];
+                        filled = new boolean[columns.size()];
+                    } else if (!blank) {
+                        this.carry();
+                        batch.add(row);
+                        rows++;
+                        if (batch.size() >= batchSize) {
+                            this.flush();
+                        }
+                    }
+                    row = null;
+                    break;
+                default:
+            }
+        }
+
+        private void cell() {
+            String content = text.toString();
+            int kind = ExcelImportPlan.TEXT;
+            if ("s".equals(type)) {
+                content = strings.getEntryAt(Integer.parseInt(content.trim()));
+            } else if ("b".equals(type)) {
+                content = "1".equals(content) ? "true" : "false";
+            } else if ("e".equals(type)) {
+                content = "";
+            } else if (type == null || "n".equals(type)) {
+                kind = this.isDate(style) ? ExcelImportPlan.DATE : ExcelImportPlan.NUMBER;
+            }
+            if (header) {
+                while (columns.size() <= column) {
+                    columns.add(null);
+                }
+                columns.set(column, plan.column(content));
+                return;
+            }
+            ExcelImportPlan.Column target = column < columns.size() ? columns.get(column) : null;
+            if (target == null || content.isEmpty()) {
+                return;
+            }
+            blank = false;
+            if (target.getAttr().mergeRow()) {
+                carried[column] = content;
+                carriedKinds[column] = kind;
+                filled[column] = true;
+            }
+            this.set(target, content, kind);
+        }
+
+        /**
+         * 合并行列为空时沿用上一行的值
+         */
+        private void carry() {
+            for (int i = 0; i < carried.length; i++) {
+                if (!filled[i] && carried[i] != null) {
+                    this.set(columns.get(i), carried[i], carriedKinds[i]);
+                }
+            }
+        }
+
+        private void set(ExcelImportPlan.Column target, String content, int kind) {
+            try {
+                target.set(row, content, kind);
+            } catch (Throwable e) {
+                throw new IllegalArgumentException("工作表[" + sheet + "]第" + rowNum + "行[" + target.getAttr().name()
+                        + "]格式错误:" + content, e);
+            }
+        }
+
+        /**
+         * 单元格引用中的列下标,如 AB12 为27
+         */
+        private int column(String ref) {
+            int index = 0;
+            for (int i = 0; i < ref.length(); i++) {
+                char c = ref.charAt(i);
+                if (c < 'A' || c > 'Z') {
+                    break;
+                }
+                index = index * 26 + (c - 'A' + 1);
+            }
+            return index - 1;
+        }
+
+        private boolean isDate(int index) {
+            while (dateStyles.size() <= index) {
+                dateStyles.add(null);
+            }
+            Boolean date = dateStyles.get(index);
+            if (date == null) {
+                XSSFCellStyle cellStyle = styles != null && index < styles.getNumCellStyles() ? styles.getStyleAt(index) : null;
+                date = cellStyle != null && DateUtil.isADateFormat(cellStyle.getDataFormat(), cellStyle.getDataFormatString());
+                dateStyles.set(index, date);
+            }
+            return date;
+        }
+
+        /**
+         * 交出当前一批数据
+         */
+        void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            consumer.accept(batch);
+            batch = new ArrayList<>(batchSize);
+            if (progress != null) {
+                progress.update(rows, total);
+            }
+        }
+    }
+}
@@ -0,0 +1,540 @@
+package com.spring.util;
+
+import com.spring.annotation.Excel;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.ss.util.WorkbookUtil;
+import org.springframework.util.StringUtils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 直接输出OOXML的xlsx写入后端
+ * <p>
+ * 跳过POI的行/单元格对象与共享字符串表，按导出计划把工作表XML(内联字符串)直接写入zip，
+ * 单元格写出时几乎不产生临时对象。标题、列宽、后缀、默认值与按行合并的语义与{@link ExcelExportUtils}一致，
+ * 不支持提示与下拉(见{@link #supports(ExcelExportPlan)})
+ * <p>
+ * 同一时刻只能有一个工作表处于写入中，写入中的工作表直接输出到zip条目；文件先写入.part临时文件，生成完成后再改名。
+ * 开启检查点时每个工作表结束后把.part文件同步到磁盘，中断后可以续传，见{@link ExportCheckpoint}
+ *
+ * @author Zhendong Zhou
+ */
+@Slf4j
+public class ExcelStreamWriter implements ExportWriter {
+    private static final String MAIN_NS = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+    private static final String REL_NS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+    private static final String PACKAGE_REL_NS = "http://schemas.openxmlformats.org/package/2006/relationships";
+    private static final String XML_HEAD = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+    /**
+     * 样式表的字体、填充与边框部分,固定不变
+     */
+    private static final String STYLE_PARTS = "<fonts count=\"3\"><font><sz val=\"11\"/><name val=\"Calibri\"/></font>"
+            + "<font><b/><sz val=\"11\"/><name val=\"Calibri\"/></font>"
+            + "<font><sz val=\"11\"/><color indexed=\"10\"/><name val=\"Calibri\"/></font></fonts>"
+            + "<fills count=\"4\"><fill><patternFill patternType=\"none\"/></fill><fill><patternFill patternType=\"gray125\"/></fill>"
+            + "<fill><patternFill patternType=\"solid\"><fgColor indexed=\"43\"/></patternFill></fill>"
+            + "<fill><patternFill patternType=\"solid\"><fgColor indexed=\"13\"/></patternFill></fill></fills>"
+            + "<borders count=\"1\"><border><left/><right/><top/><bottom/><diagonal/></border></borders>"
+            + "<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>";
+    /**
+     * 固定的cellXfs,依次为:默认、数据(居中)、标题(粗体浅黄底)、提示标题(红字黄底);带数据格式的列样式顺延其后
+     */
+    private static final String FIXED_XFS = "<xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/>"
+            + "<xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyAlignment=\"1\"><alignment horizontal=\"center\" vertical=\"center\"/></xf>"
+            + "<xf numFmtId=\"0\" fontId=\"1\" fillId=\"2\" borderId=\"0\" xfId=\"0\" applyFont=\"1\" applyFill=\"1\" applyAlignment=\"1\"><alignment horizontal=\"center\" vertical=\"center\" wrapText=\"1\"/></xf>"
+            + "<xf numFmtId=\"0\" fontId=\"2\" fillId=\"3\" borderId=\"0\" xfId=\"0\" applyFont=\"1\" applyFill=\"1\" applyAlignment=\"1\"><alignment horizontal=\"center\" vertical=\"center\" wrapText=\"1\"/></xf>";
+    private static final int FIXED_XF_COUNT = 4;
+    private static final int CUSTOM_FORMAT_ID = 164;
+    private static final int STYLE_BODY = 1;
+    private static final int STYLE_HEADER = 2;
+    private static final int STYLE_NOTE = 3;
+
+    private final ExcelExportPlan plan;
+    private final String fileName;
+    private final String filePath;
+    private final File part;
+    private final FileOutputStream file;
+    private final ZipOutputStream zip;
+    private final Writer out;
+    private final List<StreamSheet> sheets = new ArrayList<>();
+    /**
+     * 正在写入的工作表
+     */
+    private StreamSheet current;
+    /**
+     * 检查点,为空时不开启
+     */
+    private final ExportCheckpoint checkpoint;
+
+    /**
+     * 以下均按导出计划预先生成
+     */
+    private final ExcelExportPlan.Column[] columns;
+    private final ExcelExportPlan.Column datum;
+    /**
+     * 逐行写入的列下标:全部数据列,以及被合并覆盖时仍需写入的列
+     */
+    private final int[] active;
+    private final int[] uncovered;
+    private final String[] letters;
+    /**
+     * 各列数据单元格的样式属性
+     */
+    private final String[] bodyStyles;
+    /**
+     * 列的原生数据格式,与{@link ExcelStylePool#dataFormat(Excel)}一致,按出现顺序编号
+     */
+    private final List<String> formats = new ArrayList<>();
+    private final String sheetHead;
+    private final String rowHead;
+    private final char[] number = new char[12];
+
+    public ExcelStreamWriter(ExcelExportPlan plan, String dir, String moduleName) {
+        this(plan, dir, moduleName, null);
+    }
+
+    /**
+     * @param checkpoint 检查点,续传时沿用其中的文件名并恢复已结束的工作表,为空时不开启
+     */
+    public ExcelStreamWriter(ExcelExportPlan plan, String dir, String moduleName, ExportCheckpoint checkpoint) {
+        this.plan = plan;
+        this.checkpoint = checkpoint;
+        this.fileName = checkpoint != null && checkpoint.isResume() ? checkpoint.getFileName()
+                : moduleName + "-" + System.currentTimeMillis() + ".xlsx";
+        this.filePath = dir + fileName;
+        this.part = new File(filePath + ".part");
+        if (!part.getParentFile().exists() && !part.getParentFile().mkdirs()) {
+            log.error("建立存储Excel目录失败");
+        }
+        try {
+            if (checkpoint != null) {
+                checkpoint.prepare(part);
+            }
+            this.file = new FileOutputStream(part);
+            this.zip = new ZipOutputStream(file);
+            this.zip.setLevel(Deflater.BEST_SPEED);
+            if (checkpoint != null) {
+                checkpoint.restore(part, zip, file);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("EXCEL文件创建失败:" + fileName, e);
+        }
+        this.out = new BufferedWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8), 1 << 16);
+
+        this.columns = plan.getColumns();
+        this.datum = plan.getDatum();
+        boolean[] merged = new boolean[columns.length];
+        for (int column : plan.getMergeColumns()) {
+            merged[column] = true;
+        }
+        this.active = Arrays.stream(plan.getExportColumns()).mapToInt(ExcelExportPlan.Column::getIndex).toArray();
+        this.uncovered = Arrays.stream(active).filter(column -> !merged[column]).toArray();
+        this.letters = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            letters[i] = CellReference.convertNumToColString(i);
+        }
+        this.bodyStyles = new String[columns.length];
+        for (ExcelExportPlan.Column column : columns) {
+            String format = ExcelStylePool.dataFormat(column.getAttr());
+            int style = STYLE_BODY;
+            if (format != null) {
+                if (!formats.contains(format)) {
+                    formats.add(format);
+                }
+                style = FIXED_XF_COUNT + formats.indexOf(format);
+            }
+            bodyStyles[column.getIndex()] = "\" s=\"" + style + "\"";
+        }
+        this.sheetHead = this.sheetHead();
+        this.rowHead = plan.getRowHeight() < 0 ? "\">" : "\" ht=\"" + plan.getRowHeight() + "\" customHeight=\"1\">";
+    }
+
+    /**
+     * 是否可以使用本后端导出,存在提示或下拉列时需使用POI
+     */
+    public static boolean supports(ExcelExportPlan plan) {
+        for (ExcelExportPlan.Column column : plan.getColumns()) {
+            if (!StringUtils.isEmpty(column.getAttr().prompt()) || column.getAttr().combo().length > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String getFileName() {
+        return fileName;
+    }
+
+    @Override
+    public ExcelExportPlan getPlan() {
+        return plan;
+    }
+
+    @Override
+    public synchronized SheetWriter createSheet(String name) {
+        WorkbookUtil.validateSheetName(name);
+        StreamSheet sheet = new StreamSheet(sheets.size() + 1, name);
+        if (checkpoint != null && checkpoint.isRestored(sheets.size())) {
+            // 已从上次的输出文件中恢复
+            sheet.opened = true;
+            sheet.closed = true;
+        }
+        sheets.add(sheet);
+        return sheet;
+    }
+
+    @Override
+    public synchronized String make() {
+        try {
+            if (sheets.isEmpty()) {
+                createSheet("Sheet1");
+            }
+            for (StreamSheet sheet : sheets) {
+                sheet.close();
+            }
+            this.entry("[Content_Types].xml", this.contentTypes());
+            this.entry("_rels/.rels", XML_HEAD + "<Relationships xmlns=\"" + PACKAGE_REL_NS + "\">"
+                    + "<Relationship Id=\"rId1\" Type=\"" + REL_NS + "/officeDocument\" Target=\"xl/workbook.xml\"/></Relationships>");
+            this.entry("xl/workbook.xml", this.workbook());
+            this.entry("xl/_rels/workbook.xml.rels", this.workbookRels());
+            this.entry("xl/styles.xml", this.styles());
+            zip.close();
+            File file = new File(filePath);
+            if (!part.renameTo(file)) {
+                throw new IOException("重命名失败:" + part);
+            }
+        } catch (Exception e) {
+            log.error("EXCEL文件生成失败:{}", e.getMessage());
+            try {
+                zip.close();
+            } catch (IOException ignored) {
+            }
+            part.delete();
+            throw new RuntimeException("EXCEL文件生成失败");
+        }
+        return fileName;
+    }
+
+    private void entry(String name, String content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        out.write(content);
+        out.flush();
+        zip.closeEntry();
+    }
+
+    private String contentTypes() {
+        StringBuilder xml = new StringBuilder(XML_HEAD)
+                .append("<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">")
+                .append("<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>")
+                .append("<Default Extension=\"xml\" ContentType=\"application/xml\"/>")
+                .append("<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>")
+                .append("<Override PartName=\"/xl/styles.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>");
+        for (StreamSheet sheet : sheets) {
+            xml.append("<Override PartName=\"/xl/worksheets/sheet").append(sheet.index)
+                    .append(".xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>");
+        }
+        return xml.append("</Types>").toString();
+    }
+
+    private String workbook() {
+        StringBuilder xml = new StringBuilder(XML_HEAD)
+                .append("<workbook xmlns=\"").append(MAIN_NS).append("\" xmlns:r=\"").append(REL_NS).append("\"><sheets>");
+        for (StreamSheet sheet : sheets) {
+            xml.append("<sheet name=\"").append(escape(sheet.name)).append("\" sheetId=\"").append(sheet.index)
+                    .append("\" r:id=\"rId").append(sheet.index).append("\"/>");
+        }
+        return xml.append("</sheets></workbook>").toString();
+    }
+
+    private String styles() {
+        StringBuilder xml = new StringBuilder(XML_HEAD).append("<styleSheet xmlns=\"").append(MAIN_NS).append("\">");
+        if (!formats.isEmpty()) {
+            xml.append("<numFmts count=\"").append(formats.size()).append("\">");
+            for (int i = 0; i < formats.size(); i++) {
+                xml.append("<numFmt numFmtId=\"").append(CUSTOM_FORMAT_ID + i).append("\" formatCode=\"")
+                        .append(escape(formats.get(i))).append("\"/>");
+            }
+            xml.append("</numFmts>");
+        }
+        xml.append(STYLE_PARTS).append("<cellXfs count=\"").append(FIXED_XF_COUNT + formats.size()).append("\">").append(FIXED_XFS);
+        for (int i = 0; i < formats.size(); i++) {
+            xml.append("<xf numFmtId=\"").append(CUSTOM_FORMAT_ID + i).append("\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"")
+                    .append(" applyNumberFormat=\"1\" applyAlignment=\"1\"><alignment horizontal=\"center\" vertical=\"center\"/></xf>");
+        }
+        return xml.append("</cellXfs><cellStyles count=\"1\"><cellStyle name=\"Normal\" xfId=\"0\" builtinId=\"0\"/></cellStyles></styleSheet>").toString();
+    }
+
+    private String workbookRels() {
+        StringBuilder xml = new StringBuilder(XML_HEAD).append("<Relationships xmlns=\"").append(PACKAGE_REL_NS).append("\">");
+        for (StreamSheet sheet : sheets) {
+            xml.append("<Relationship Id=\"rId").append(sheet.index).append("\" Type=\"").append(REL_NS)
+                    .append("/worksheet\" Target=\"worksheets/sheet").append(sheet.index).append(".xml\"/>");
+        }
+        xml.append("<Relationship Id=\"rId").append(sheets.size() + 1).append("\" Type=\"").append(REL_NS)
+                .append("/styles\" Target=\"styles.xml\"/>");
+        return xml.append("</Relationships>").toString();
+    }
+
+    /**
+     * 工作表开头:列宽与标题行
+     */
+    private String sheetHead() {
+        StringBuilder xml = new StringBuilder(XML_HEAD)
+                .append("<worksheet xmlns=\"").append(MAIN_NS).append("\" xmlns:r=\"").append(REL_NS).append("\">");
+        double headHeight = -1;
+        if (columns.length > 0) {
+            xml.append("<cols>");
+            for (ExcelExportPlan.Column column : columns) {
+                Excel attr = column.getAttr();
+                boolean note = attr.name().contains("注：");
+                double width = note ? 6000 / 256.0 : (int) ((attr.width() + 0.72) * 256) / 256.0;
+                int index = column.getIndex() + 1;
+                xml.append("<col min=\"").append(index).append("\" max=\"").append(index)
+                        .append("\" width=\"").append(width).append("\" customWidth=\"1\"/>");
+                if (!note) {
+                    headHeight = attr.height();
+                }
+            }
+            xml.append("</cols>");
+        }
+        xml.append("<sheetData><row r=\"1\"");
+        if (headHeight > 0) {
+            xml.append(" ht=\"").append(headHeight).append("\" customHeight=\"1\"");
+        }
+        xml.append('>');
+        for (ExcelExportPlan.Column column : columns) {
+            Excel attr = column.getAttr();
+            xml.append("<c r=\"").append(letters[column.getIndex()]).append("1\" s=\"")
+                    .append(attr.name().contains("注：") ? STYLE_NOTE : STYLE_HEADER)
+                    .append("\" t=\"inlineStr\"><is><t>").append(escape(attr.name())).append("</t></is></c>");
+        }
+        return xml.append("</row>").toString();
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 8);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '<': escaped.append("&lt;"); break;
+                case '>': escaped.append("&gt;"); break;
+                case '&': escaped.append("&amp;"); break;
+                case '"': escaped.append("&quot;"); break;
+                default:
+                    if (isXmlChar(value, i)) {
+                        escaped.append(c);
+                    }
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * 下标处的字符是否可以写入XML:去除控制字符、0xFFFE、0xFFFF与不成对的代理字符
+     */
+    private static boolean isXmlChar(String value, int i) {
+        char c = value.charAt(i);
+        if (Character.isHighSurrogate(c)) {
+            return i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1));
+        }
+        if (Character.isLowSurrogate(c)) {
+            return i > 0 && Character.isHighSurrogate(value.charAt(i - 1));
+        }
+        return c >= 0x20 && c < 0xFFFE || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    /**
+     * 写出文本内容,转义并去除XML不允许的控制字符
+     */
+    private void writeText(String value) throws IOException {
+        int start = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String replacement;
+            switch (c) {
+                case '<': replacement = "&lt;"; break;
+                case '>': replacement = "&gt;"; break;
+                case '&': replacement = "&amp;"; break;
+                default:
+                    if (isXmlChar(value, i)) {
+                        continue;
+                    }
+                    replacement = "";
+            }
+            out.write(value, start, i - start);
+            out.write(replacement);
+            start = i + 1;
+        }
+        out.write(value, start, length - start);
+    }
+
+    private void writeInt(long value) throws IOException {
+        if (value < 0 || value >= 1000000000000L) {
+            out.write(Long.toString(value));
+            return;
+        }
+        int pos = number.length;
+        do {
+            number[--pos] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        out.write(number, pos, number.length - pos);
+    }
+
+    private void writeNumber(double value) throws IOException {
+        long integral = (long) value;
+        if (integral == value && integral >= 0 && integral < 1000000000000L) {
+            writeInt(integral);
+        } else {
+            out.write(Double.toString(value));
+        }
+    }
+
+    private void writeCellHead(int column, int row) throws IOException {
+        out.write("<c r=\"");
+        out.write(letters[column]);
+        writeInt(row);
+        out.write(bodyStyles[column]);
+    }
+
+    /**
+     * 单个工作表
+     */
+    private class StreamSheet implements SheetWriter {
+        private final int index;
+        private final String name;
+        private boolean opened;
+        private boolean closed;
+        private int rowNum = 1;
+
+        /**
+         * 按行合并的区间
+         */
+        private final MergeSpans spans = new MergeSpans();
+
+        StreamSheet(int index, String name) {
+            this.index = index;
+            this.name = name;
+        }
+
+        @Override
+        public int size() {
+            return rowNum - 1;
+        }
+
+        private void open() throws IOException {
+            if (opened) {
+                return;
+            }
+            if (current != null) {
+                throw new IllegalStateException("同一时刻只能写入一个工作表:" + current.name);
+            }
+            zip.putNextEntry(new ZipEntry("xl/worksheets/sheet" + index + ".xml"));
+            out.write(sheetHead);
+            opened = true;
+            current = this;
+        }
+
+        @Override
+        public void append(RowBuffer rows) {
+            if (closed) {
+                throw new IllegalStateException("工作表已结束写入:" + name);
+            }
+            try {
+                this.open();
+                for (int r = 0; r < rows.size(); r++) {
+                    int excelRow = rowNum + 1;
+                    boolean covered = datum != null && spans.next(rows.key(r), rowNum);
+                    out.write("<row r=\"");
+                    writeInt(excelRow);
+                    out.write(rowHead);
+                    for (int c : covered ? uncovered : active) {
+                        writeCellHead(c, excelRow);
+                        switch (rows.kind(r, c)) {
+                            case RowBuffer.NUMBER:
+                                double numeric = rows.number(r, c);
+                                if (Double.isNaN(numeric) || Double.isInfinite(numeric)) {
+                                    // 数值单元格不能表示NaN与无穷大,与CSV一致按文本输出
+                                    out.write(" t=\"inlineStr\"><is><t>");
+                                    out.write(Double.toString(numeric));
+                                    out.write("</t></is></c>");
+                                    break;
+                                }
+                                out.write("><v>");
+                                writeNumber(numeric);
+                                out.write("</v></c>");
+                                break;
+                            case RowBuffer.TEXT:
+                                out.write(" t=\"inlineStr\"><is><t xml:space=\"preserve\">");
+                                writeText(rows.text(r, c));
+                                out.write("</t></is></c>");
+                                break;
+                            default:
+                                out.write("/>");
+                        }
+                    }
+                    out.write("</row>");
+                    rowNum++;
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("EXCEL工作表写入失败:" + name, e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            try {
+                this.open();
+                spans.end();
+                out.write("</sheetData>");
+                int[] mergeColumns = plan.getMergeColumns();
+                if (spans.size() > 0 && mergeColumns.length > 0) {
+                    out.write("<mergeCells count=\"");
+                    writeInt((long) spans.size() * mergeColumns.length);
+                    out.write("\">");
+                    for (int i = 0; i < spans.size(); i++) {
+                        for (int column : mergeColumns) {
+                            out.write("<mergeCell ref=\"");
+                            out.write(letters[column]);
+                            writeInt(spans.firstRow(i) + 1);
+                            out.write(':');
+                            out.write(letters[column]);
+                            writeInt(spans.lastRow(i) + 1);
+                            out.write("\"/>");
+                        }
+                    }
+                    out.write("</mergeCells>");
+                }
+                out.write("</worksheet>");
+                out.flush();
+                zip.closeEntry();
+                if (checkpoint != null) {
+                    ExportCheckpoint.sync(file);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("EXCEL工作表写入失败:" + name, e);
+            } finally {
+                closed = true;
+                current = null;
+            }
+        }
+    }
+}
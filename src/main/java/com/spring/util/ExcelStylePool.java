@@ -0,0 +1,130 @@
+package com.spring.util;
+
+import com.spring.annotation.Excel;
+import lombok.Value;
+import org.apache.poi.hssf.usermodel.HSSFFont;
+import org.apache.poi.hssf.util.HSSFColor;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.FillPatternType;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.HorizontalAlignment;
+import org.apache.poi.ss.usermodel.VerticalAlignment;
+import org.apache.poi.ss.usermodel.Workbook;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 工作簿样式池-按样式属性缓存单元格样式与字体
+ * <p>
+ * 同一工作簿的所有工作表与线程共用，相同属性的样式只创建一次，避免工作表增多时styles.xml膨胀直至超出Excel的样式上限
+ *
+ * @author Zhendong Zhou
+ */
+public class ExcelStylePool {
+    private static final short NONE = -1;
+
+    private final Workbook book;
+    private final Map<StyleKey, CellStyle> styles = new HashMap<>();
+    private final Map<FontKey, Font> fonts = new HashMap<>();
+
+    public ExcelStylePool(Workbook book) {
+        this.book = book;
+    }
+
+    /**
+     * 标题样式,列名含"注："时红字黄底,否则粗体浅黄底
+     */
+    public CellStyle header(Excel attr) {
+        if (attr.name().contains("注：")) {
+            return this.get(new StyleKey(false, HSSFFont.COLOR_RED, HSSFColor.HSSFColorPredefined.YELLOW.getIndex(), true, null));
+        }
+        return this.get(new StyleKey(true, NONE, HSSFColor.HSSFColorPredefined.LIGHT_YELLOW.getIndex(), true, null));
+    }
+
+    /**
+     * 数据样式,按列的原生数据格式区分
+     */
+    public CellStyle body(Excel attr) {
+        return this.get(new StyleKey(false, NONE, NONE, false, dataFormat(attr)));
+    }
+
+    /**
+     * 按属性获取样式,不存在时创建
+     */
+    public synchronized CellStyle get(StyleKey key) {
+        CellStyle style = styles.get(key);
+        if (style == null) {
+            style = this.create(key);
+            styles.put(key, style);
+        }
+        return style;
+    }
+
+    public synchronized int size() {
+        return styles.size();
+    }
+
+    private CellStyle create(StyleKey key) {
+        CellStyle style = book.createCellStyle();
+        style.setAlignment(HorizontalAlignment.CENTER);
+        style.setVerticalAlignment(VerticalAlignment.CENTER);
+        if (key.isBold() || key.getFontColor() != NONE) {
+            style.setFont(this.font(new FontKey(key.isBold(), key.getFontColor())));
+        }
+        if (key.getFillColor() != NONE) {
+            style.setFillForegroundColor(key.getFillColor());
+            style.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+        }
+        style.setWrapText(key.isWrap());
+        if (key.getDataFormat() != null) {
+            style.setDataFormat(book.createDataFormat().getFormat(key.getDataFormat()));
+        }
+        return style;
+    }
+
+    private Font font(FontKey key) {
+        Font font = fonts.get(key);
+        if (font == null) {
+            font = book.createFont();
+            font.setBold(key.isBold());
+            if (key.getColor() != NONE) {
+                font.setColor(key.getColor());
+            }
+            fonts.put(key, font);
+        }
+        return font;
+    }
+
+    /**
+     * 列的原生数据格式,数值列的后缀以格式文本显示而不改变单元格的数值,无需格式时返回空
+     *
+     * @param attr 列注解
+     * @return Excel数据格式
+     */
+    public static String dataFormat(Excel attr) {
+        if (attr.cellType() != CellType.NUMERIC || attr.suffix().isEmpty()) {
+            return null;
+        }
+        return "General\"" + attr.suffix().replace("\"", "") + "\"";
+    }
+
+    /**
+     * 样式属性,水平与垂直方向均居中
+     */
+    @Value
+    public static class StyleKey {
+        boolean bold;
+        short fontColor;
+        short fillColor;
+        boolean wrap;
+        String dataFormat;
+    }
+
+    @Value
+    private static class FontKey {
+        boolean bold;
+        short color;
+    }
+}
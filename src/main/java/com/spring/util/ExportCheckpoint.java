@@ -0,0 +1,199 @@
+package com.spring.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.util.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 工作表检查点-xlsx写入后端的可续传模式
+ * <p>
+ * 已结束的工作表保留在输出文件(.part)中，每个工作表结束时把输出文件同步到磁盘；进程中断后以相同文件名重新创建写入后端，
+ * 从上次的.part文件中复制已登记结束的工作表，其余工作表重新写入。工作表的条目名为 xl/worksheets/sheet序号.xml(序号从1开始)，
+ * 中断时的.part文件没有中央目录且末尾可能有写了一半的条目，恢复时按本地文件头顺序读取，只复制完整且已登记的条目
+ *
+ * @author Zhendong Zhou
+ */
+@Slf4j
+public class ExportCheckpoint {
+    private static final String RESTORE = ".restore";
+
+    /**
+     * 续传的文件名,新导出为空
+     */
+    private final String fileName;
+    /**
+     * 检查点登记的已结束工作表下标(从0开始)
+     */
+    private final Set<Integer> sheets;
+    /**
+     * 实际恢复的工作表下标
+     */
+    private final Set<Integer> restored = new HashSet<>();
+
+    private ExportCheckpoint(String fileName, Collection<Integer> sheets) {
+        this.fileName = fileName;
+        this.sheets = new HashSet<>(sheets);
+    }
+
+    /**
+     * 新导出:只开启工作表结束时的磁盘同步
+     */
+    public static ExportCheckpoint create() {
+        return new ExportCheckpoint(null, Collections.emptySet());
+    }
+
+    /**
+     * 续传中断的导出
+     *
+     * @param fileName 原文件名
+     * @param sheets 已结束的工作表下标(从0开始)
+     */
+    public static ExportCheckpoint resume(String fileName, Collection<Integer> sheets) {
+        return new ExportCheckpoint(fileName, sheets);
+    }
+
+    public boolean isResume() {
+        return fileName != null;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * 工作表是否已从上次的输出文件中恢复,恢复的工作表不再写入
+     *
+     * @param index 工作表下标,从0开始
+     */
+    public synchronized boolean isRestored(int index) {
+        return restored.contains(index);
+    }
+
+    public synchronized Set<Integer> getRestored() {
+        return new HashSet<>(restored);
+    }
+
+    /**
+     * 工作表的条目名
+     *
+     * @param index 工作表下标,从0开始
+     */
+    public static String entryName(int index) {
+        return "xl/worksheets/sheet" + (index + 1) + ".xml";
+    }
+
+    /**
+     * 创建新的输出文件前,把上次的输出文件改名留作恢复来源;
+     * 恢复来源已存在时说明上次恢复中途中断,此时的输出文件只是不完整的副本,直接删除
+     *
+     * @param part 输出文件(.part)
+     */
+    void prepare(File part) {
+        if (!this.isResume()) {
+            return;
+        }
+        File source = new File(part.getPath() + RESTORE);
+        if (source.exists()) {
+            if (part.exists() && !part.delete()) {
+                log.warn("EXCEL续传文件删除失败:{}", part);
+            }
+        } else if (part.exists() && !part.renameTo(source)) {
+            log.warn("EXCEL续传文件改名失败:{}", part);
+        }
+    }
+
+    /**
+     * 把恢复来源中已登记的工作表复制到新的输出文件,完成后删除恢复来源
+     *
+     * @param part 输出文件(.part)
+     * @param zip 新的输出文件
+     * @param file 新的输出文件的文件流,复制完成后同步到磁盘
+     * @return 恢复的条目名
+     */
+    synchronized Set<String> restore(File part, ZipOutputStream zip, FileOutputStream file) throws IOException {
+        Set<String> entries = new HashSet<>();
+        File source = new File(part.getPath() + RESTORE);
+        if (!this.isResume() || !source.exists()) {
+            return entries;
+        }
+        Set<String> expected = new HashSet<>();
+        sheets.forEach(index -> expected.add(entryName(index)));
+        // 第一遍只校验(含CRC),找出完整的条目;第二遍复制,不在内存中保留条目内容
+        Set<String> complete = new HashSet<>();
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(source))) {
+            ZipEntry entry;
+            while ((entry = this.next(in)) != null) {
+                try {
+                    skip(in);
+                } catch (IOException e) {
+                    log.warn("EXCEL续传条目不完整:{},{}", entry.getName(), e.getMessage());
+                    break;
+                }
+                if (expected.contains(entry.getName())) {
+                    complete.add(entry.getName());
+                }
+            }
+        }
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(source))) {
+            ZipEntry entry;
+            while (entries.size() < complete.size() && (entry = this.next(in)) != null) {
+                if (!complete.contains(entry.getName()) || entries.contains(entry.getName())) {
+                    continue;
+                }
+                zip.putNextEntry(new ZipEntry(entry.getName()));
+                IOUtils.copy(in, zip);
+                zip.closeEntry();
+                entries.add(entry.getName());
+            }
+        }
+        for (Integer index : sheets) {
+            if (entries.contains(entryName(index))) {
+                restored.add(index);
+            }
+        }
+        sync(file);
+        if (!source.delete()) {
+            log.warn("EXCEL续传来源删除失败:{}", source);
+        }
+        return entries;
+    }
+
+    private ZipEntry next(ZipInputStream in) {
+        try {
+            return in.getNextEntry();
+        } catch (IOException e) {
+            // 中断时的末尾
+            return null;
+        }
+    }
+
+    /**
+     * 把输出文件同步到磁盘,之后才能登记工作表已结束
+     */
+    static void sync(FileOutputStream file) throws IOException {
+        file.flush();
+        file.getFD().sync();
+    }
+
+    /**
+     * 读取并丢弃输入流
+     */
+    private static void skip(InputStream in) throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        while (in.read(buffer) >= 0) {
+            // 丢弃
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.spring.util;
+
+/**
+ * 导出文件格式
+ *
+ * @author Zhendong Zhou
+ */
+public enum ExportFormat {
+    /**
+     * xlsx-经由POI流式工作簿写入,支持提示与下拉等全部注解属性
+     */
+    XLSX,
+    /**
+     * xlsx-跳过POI对象模型直接输出工作表XML,适用于普通表格导出(不支持提示与下拉)
+     */
+    XLSX_STREAM,
+    /**
+     * csv-按列名、日期格式、后缀与默认值输出纯文本,不含样式与合并,也不按工作表拆分
+     */
+    CSV,
+    /**
+     * csv.gz-gzip压缩的csv
+     */
+    CSV_GZIP
+}
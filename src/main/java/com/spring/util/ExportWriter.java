@@ -0,0 +1,68 @@
+package com.spring.util;
+
+import java.util.List;
+
+/**
+ * 导出文件写入后端
+ * <p>
+ * 数据的取值与格式化({@link #prepare(List)})可在任意线程并行执行，
+ * 工作表的创建、写入与文件生成需由同一时刻的单个线程调用
+ *
+ * @author Zhendong Zhou
+ */
+public interface ExportWriter {
+    /**
+     * 返回预期文件名
+     */
+    String getFileName();
+
+    /**
+     * 导出计划
+     */
+    ExcelExportPlan getPlan();
+
+    /**
+     * 预先取值并格式化一批数据,不涉及文件,可在任意线程中并行执行
+     *
+     * @param list 数据
+     * @return 行数据缓冲
+     */
+    default RowBuffer prepare(List<?> list) {
+        return RowBuffer.of(getPlan(), list);
+    }
+
+    /**
+     * 按顺序登记一个工作表,标题与数据在首次写入时才生成
+     *
+     * @param name 工作表名
+     * @return 工作表写入对象
+     */
+    SheetWriter createSheet(String name);
+
+    /**
+     * 生成文件
+     *
+     * @return 文件名
+     */
+    String make();
+
+    /**
+     * 工作表写入对象
+     */
+    interface SheetWriter {
+        /**
+         * 已写入的数据行数
+         */
+        int size();
+
+        /**
+         * 追加数据
+         */
+        void append(RowBuffer rows);
+
+        /**
+         * 结束写入,完成合并等收尾工作
+         */
+        void close();
+    }
+}
@@ -0,0 +1,74 @@
+package com.spring.util;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * 按基准列分组的行合并区间
+ * <p>
+ * 逐行判定当前行是否与上一行同组，同组行的合并列单元格不再写入；区间以起止行成对存放在int数组中，
+ * 工作表结束时一次性写出，不需要回头访问已刷写到临时文件的行
+ *
+ * @author Zhendong Zhou
+ */
+final class MergeSpans {
+    private boolean started;
+    private Object lastKey;
+    private int startRow;
+    private int lastRow;
+    /**
+     * 已确定的区间,起止行成对存放
+     */
+    private int[] spans = new int[16];
+    private int size;
+
+    /**
+     * 记录一行的基准列值
+     *
+     * @param key 基准列的值
+     * @param row 行号
+     * @return 当前行是否与上一行同属一组,同组的合并列单元格会被合并覆盖
+     */
+    boolean next(Object key, int row) {
+        boolean same = started && Objects.equals(lastKey, key);
+        if (!same) {
+            this.end();
+            started = true;
+            lastKey = key;
+            startRow = row;
+        }
+        lastRow = row;
+        return same;
+    }
+
+    /**
+     * 结束当前组,组内多于一行时记录区间
+     */
+    void end() {
+        if (started && lastRow > startRow) {
+            if (size * 2 + 2 > spans.length) {
+                spans = Arrays.copyOf(spans, spans.length * 2);
+            }
+            spans[size * 2] = startRow;
+            spans[size * 2 + 1] = lastRow;
+            size++;
+        }
+        started = false;
+        lastKey = null;
+    }
+
+    /**
+     * 区间个数
+     */
+    int size() {
+        return size;
+    }
+
+    int firstRow(int span) {
+        return spans[span * 2];
+    }
+
+    int lastRow(int span) {
+        return spans[span * 2 + 1];
+    }
+}
@@ -0,0 +1,158 @@
+package com.spring.util;
+
+import com.alibaba.fastjson.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 行数据缓冲-按导出计划预先取值并格式化好的单元格
+ * <p>
+ * 取值与格式化可以在任意线程中并行完成，写入工作簿时只需按顺序搬运，POI对象始终只由一个线程操作
+ *
+ * @author Zhendong Zhou
+ */
+@Slf4j
+public class RowBuffer implements CellWriter.Output {
+    static final byte NONE = 0;
+    static final byte NUMBER = 1;
+    static final byte TEXT = 2;
+
+    private final ExcelExportPlan plan;
+    private final ExcelExportPlan.Column[] columns;
+    private final ExcelExportPlan.Column datum;
+    private final int width;
+
+    private byte[] kinds;
+    private double[] numbers;
+    private String[] texts;
+    /**
+     * 每行基准列的值
+     */
+    private Object[] keys;
+    private int rows;
+    private int position;
+
+    public RowBuffer(ExcelExportPlan plan, int capacity) {
+        this.plan = plan;
+        this.columns = plan.getExportColumns();
+        this.datum = plan.getDatum();
+        this.width = Math.max(plan.size(), 1);
+        int rows = Math.max(capacity, 16);
+        this.kinds = new byte[rows * width];
+        this.texts = new String[rows * width];
+        this.keys = datum == null ? null : new Object[rows];
+    }
+
+    /**
+     * 一次性转换整批数据
+     *
+     * @param plan 导出计划
+     * @param data 数据
+     * @return 缓冲
+     */
+    public static RowBuffer of(ExcelExportPlan plan, List<?> data) {
+        RowBuffer buffer = new RowBuffer(plan, data.size());
+        buffer.addAll(data);
+        return buffer;
+    }
+
+    public ExcelExportPlan getPlan() {
+        return plan;
+    }
+
+    public int size() {
+        return rows;
+    }
+
+    public void addAll(List<?> data) {
+        for (Object row : data) {
+            this.add(row);
+        }
+    }
+
+    /**
+     * 取值并格式化一行数据
+     */
+    public void add(Object row) {
+        ensureCapacity(rows + 1);
+        if (datum != null) {
+            try {
+                keys[rows] = datum.value(row);
+            } catch (Throwable e) {
+                log.error("导出Excel失败{},{}", e.getMessage(), JSONObject.toJSONString(e.getStackTrace()));
+                return;
+            }
+        }
+        int offset = rows * width;
+        Arrays.fill(kinds, offset, offset + width, NONE);
+        for (ExcelExportPlan.Column column : columns) {
+            position = offset + column.getIndex();
+            try {
+                column.getWriter().write(row, this);
+            } catch (Throwable e) {
+                log.error("导出Excel失败{},{}", e.getMessage(), JSONObject.toJSONString(e.getStackTrace()));
+            }
+        }
+        rows++;
+    }
+
+    /**
+     * 清空已缓冲的行,保留已分配的空间以便复用
+     */
+    public void clear() {
+        Arrays.fill(texts, 0, rows * width, null);
+        if (keys != null) {
+            Arrays.fill(keys, 0, rows, null);
+        }
+        rows = 0;
+    }
+
+    @Override
+    public void number(double value) {
+        if (numbers == null) {
+            numbers = new double[kinds.length];
+        }
+        kinds[position] = NUMBER;
+        numbers[position] = value;
+    }
+
+    @Override
+    public void text(String value) {
+        kinds[position] = TEXT;
+        texts[position] = value;
+    }
+
+    byte kind(int row, int column) {
+        return kinds[row * width + column];
+    }
+
+    double number(int row, int column) {
+        return numbers[row * width + column];
+    }
+
+    String text(int row, int column) {
+        return texts[row * width + column];
+    }
+
+    Object key(int row) {
+        return keys[row];
+    }
+
+    private void ensureCapacity(int rows) {
+        int cells = rows * width;
+        if (cells <= kinds.length) {
+            return;
+        }
+        int size = Math.max(cells, kinds.length * 2);
+        kinds = Arrays.copyOf(kinds, size);
+        texts = Arrays.copyOf(texts, size);
+        if (numbers != null) {
+            numbers = Arrays.copyOf(numbers, size);
+        }
+        if (keys != null) {
+            keys = Arrays.copyOf(keys, size / width);
+        }
+    }
+}
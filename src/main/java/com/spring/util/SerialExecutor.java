@@ -0,0 +1,42 @@
+package com.spring.util;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * 串行执行器-提交的任务借用底层线程池按提交顺序逐个执行，同一时刻最多只有一个任务在运行
+ * <p>
+ * 用作单个导出任务的写入阶段：工作表创建、样式注册与文件生成都只在这里发生，不额外占用专属线程
+ *
+ * @author Zhendong Zhou
+ */
+public class SerialExecutor implements Executor {
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private final Executor executor;
+    private Runnable active;
+
+    public SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public synchronized void execute(Runnable r) {
+        tasks.add(() -> {
+            try {
+                r.run();
+            } finally {
+                scheduleNext();
+            }
+        });
+        if (active == null) {
+            scheduleNext();
+        }
+    }
+
+    private synchronized void scheduleNext() {
+        if ((active = tasks.poll()) != null) {
+            executor.execute(active);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.spring.util;
+
+import com.spring.annotation.Excel;
+import org.apache.poi.ss.usermodel.CellType;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 单元格写入策略-按声明类型与运行时类型的分派
+ *
+ * @author Zhendong Zhou
+ */
+class CellWritersTest {
+    private static final LocalDateTime TIME = LocalDateTime.of(2021, 3, 4, 5, 6, 7);
+    private static final Date DATE = Date.from(TIME.atZone(ZoneId.systemDefault()).toInstant());
+
+    @Test
+    void dynamicDecimalColumnFormatsRuntimeDate() throws Throwable {
+        Row row = new Row();
+        row.decimal = DATE;
+        assertEquals("text:2021-03-04 05:06:07", write(row, "decimal"));
+        row.decimal = TIME;
+        assertEquals("text:2021-03-04 05:06:07", write(row, "decimal"));
+        row.decimal = new BigDecimal("1.50");
+        assertEquals("text:1.5", write(row, "decimal"));
+        row.decimal = null;
+        assertEquals("number:0.0", write(row, "decimal"));
+    }
+
+    @Test
+    void dynamicNumericColumnFormatsRuntimeDate() throws Throwable {
+        Row row = new Row();
+        row.numeric = DATE;
+        assertEquals("text:2021/03/04", write(row, "numeric"));
+        row.numeric = 12;
+        assertEquals("number:12.0", write(row, "numeric"));
+        row.numeric = "2.5";
+        assertEquals("number:2.5", write(row, "numeric"));
+    }
+
+    @Test
+    void dynamicTextColumn() throws Throwable {
+        Row row = new Row();
+        row.text = DATE;
+        assertEquals("text:2021-03-04 05:06:07", write(row, "text"));
+        row.text = LocalTime.of(8, 9, 10);
+        assertEquals("text:08:09:10", write(row, "text"));
+        row.text = 3;
+        assertEquals("text:3kg", write(row, "text"));
+        row.text = null;
+        assertEquals("text:-", write(row, "text"));
+    }
+
+    @Test
+    void declaredTypes() throws Throwable {
+        Row row = new Row();
+        row.date = DATE;
+        row.time = LocalTime.of(8, 9, 10);
+        row.count = 3;
+        row.ratio = 0.25;
+        assertEquals("text:2021-03-04 05:06:07", write(row, "date"));
+        assertEquals("text:08:09:10", write(row, "time"));
+        assertEquals("text:3", write(row, "count"));
+        assertEquals("number:0.25", write(row, "ratio"));
+        assertEquals("text:", write(row, "name"));
+    }
+
+    private static String write(Row row, String field) throws Throwable {
+        Recorder out = new Recorder();
+        for (ExcelExportPlan.Column column : ExcelExportPlan.of(Row.class).getColumns()) {
+            if (column.getField().getName().equals(field)) {
+                column.getWriter().write(row, out);
+                return out.value;
+            }
+        }
+        throw new IllegalArgumentException(field);
+    }
+
+    private static class Recorder implements CellWriter.Output {
+        private String value;
+
+        @Override
+        public void number(double value) {
+            this.value = "number:" + value;
+        }
+
+        @Override
+        public void text(String value) {
+            this.value = "text:" + value;
+        }
+    }
+
+    static class Row {
+        @Excel(name = "小数", isDecimalFormat = true)
+        Object decimal;
+        @Excel(name = "数值", cellType = CellType.NUMERIC, dateFormat = "yyyy/MM/dd")
+        Object numeric;
+        @Excel(name = "文本", suffix = "kg", defaultValue = "-")
+        Comparable<?> text;
+        @Excel(name = "日期")
+        Date date;
+        @Excel(name = "时间")
+        LocalTime time;
+        @Excel(name = "数量", isDecimalFormat = true)
+        int count;
+        @Excel(name = "比例", cellType = CellType.NUMERIC)
+        double ratio;
+        @Excel(name = "名称")
+        String name;
+    }
+}
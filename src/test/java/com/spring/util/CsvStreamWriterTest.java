@@ -0,0 +1,92 @@
+package com.spring.util;
+
+import com.spring.annotation.Excel;
+import org.apache.poi.ss.usermodel.CellType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * CSV写入-字段引用与工作表顺序
+ *
+ * @author Zhendong Zhou
+ */
+class CsvStreamWriterTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void quoting() throws Exception {
+        CsvStreamWriter writer = new CsvStreamWriter(ExcelExportPlan.of(Row.class), dir + File.separator, "quote", false);
+        ExportWriter.SheetWriter sheet = writer.createSheet("Sheet1");
+        sheet.append(writer.prepare(Collections.singletonList(new Row("a,b", "say \"hi\"", 1.5))));
+        sheet.append(writer.prepare(Collections.singletonList(new Row("line\nbreak", "plain", Double.NaN))));
+        sheet.append(writer.prepare(Collections.singletonList(new Row(null, "cr\r", -3))));
+        sheet.close();
+        String content = new String(Files.readAllBytes(dir.resolve(writer.make())), StandardCharsets.UTF_8);
+        assertEquals("﻿编码,\"名称,说明\",数值\r\n"
+                + "\"a,b\",\"say \"\"hi\"\"\",1.5\r\n"
+                + "\"line\nbreak\",plain,NaN\r\n"
+                + ",\"cr\r\",-3\r\n", content);
+    }
+
+    @Test
+    void sheetsKeepOrder() throws Exception {
+        CsvStreamWriter writer = new CsvStreamWriter(ExcelExportPlan.of(Row.class), dir + File.separator, "order", true);
+        ExportWriter.SheetWriter first = writer.createSheet("Sheet1");
+        ExportWriter.SheetWriter second = writer.createSheet("Sheet2");
+        ExportWriter.SheetWriter third = writer.createSheet("Sheet3");
+        // 后面的工作表先写入并结束,先写入溢出文件,轮到时按顺序输出
+        third.append(writer.prepare(Collections.singletonList(new Row("3", "c", 3))));
+        third.close();
+        second.append(writer.prepare(Collections.singletonList(new Row("2", "b", 2))));
+        first.append(writer.prepare(Collections.singletonList(new Row("1", "a", 1))));
+        first.close();
+        second.append(writer.prepare(Collections.singletonList(new Row("2", "bb", 2))));
+        second.close();
+        String fileName = writer.make();
+
+        String[] spills = dir.toFile().list((d, name) -> name.endsWith(".part"));
+        assertEquals(0, spills == null ? 0 : spills.length);
+        assertFalse(fileName.endsWith(".part"));
+        assertEquals("编码,\"名称,说明\",数值\r\n1,a,1\r\n2,b,2\r\n2,bb,2\r\n3,c,3\r\n", gunzip(dir.resolve(fileName)));
+    }
+
+    private static String gunzip(Path path) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(path))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    static class Row {
+        @Excel(name = "编码")
+        String code;
+        @Excel(name = "名称,说明")
+        String name;
+        @Excel(name = "数值", cellType = CellType.NUMERIC)
+        double value;
+
+        Row(String code, String name, double value) {
+            this.code = code;
+            this.name = name;
+            this.value = value;
+        }
+    }
+}
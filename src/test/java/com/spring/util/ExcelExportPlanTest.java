@@ -0,0 +1,116 @@
+package com.spring.util;
+
+import com.spring.annotation.Excel;
+import com.spring.annotation.Excels;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 导出计划-列解析与targetAttr属性链取值
+ *
+ * @author Zhendong Zhou
+ */
+class ExcelExportPlanTest {
+    @Test
+    void columns() {
+        ExcelExportPlan plan = ExcelExportPlan.of(Row.class);
+        assertSame(plan, ExcelExportPlan.of(Row.class));
+        assertEquals(6, plan.size());
+        assertEquals("名称", plan.getColumns()[0].getAttr().name());
+        assertEquals("编号", plan.getDatum().getAttr().name());
+        assertArrayEquals(new int[]{3}, plan.getMergeColumns());
+        assertEquals(5, plan.getExportColumns().length);
+    }
+
+    @Test
+    void declaredGetterChain() throws Throwable {
+        Row row = new Row();
+        row.owner = new Sub("张三", new Inner(7));
+        assertEquals(String.class, column("名称").getValueType());
+        assertEquals("张三", column("名称").value(row));
+        row.owner = null;
+        assertNull(column("名称").value(row));
+    }
+
+    @Test
+    void runtimeGetterChain() throws Throwable {
+        Row row = new Row();
+        row.owner = new Sub("张三", new Inner(7));
+        row.any = new Inner(9);
+        // 声明类型没有的属性按运行时类型取值
+        assertEquals(Object.class, column("数量").getValueType());
+        assertEquals(7, column("数量").value(row));
+        assertEquals(9, column("任意").value(row));
+        row.owner = new Sub("李四", null);
+        assertNull(column("数量").value(row));
+        // 运行时类型也没有该属性时取值失败
+        row.owner = new Base("王五");
+        assertThrows(IllegalStateException.class, () -> column("数量").value(row));
+    }
+
+    private static ExcelExportPlan.Column column(String name) {
+        for (ExcelExportPlan.Column column : ExcelExportPlan.of(Row.class).getColumns()) {
+            if (column.getAttr().name().equals(name)) {
+                return column;
+            }
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+    static class Row {
+        @Excels({@Excel(name = "名称", targetAttr = "name"), @Excel(name = "数量", targetAttr = "inner.count")})
+        Base owner;
+        @Excel(name = "编号", datum = true)
+        String code;
+        @Excel(name = "分组", mergeRow = true)
+        String group;
+        @Excel(name = "任意", targetAttr = "count")
+        Object any;
+        @Excel(name = "导入", type = Excel.Type.IMPORT)
+        String imported;
+        @Excel(name = "隐藏", isExport = false)
+        String hidden;
+    }
+
+    public static class Base {
+        private final String name;
+
+        Base(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    public static class Sub extends Base {
+        private final Inner inner;
+
+        Sub(String name, Inner inner) {
+            super(name);
+            this.inner = inner;
+        }
+
+        public Inner getInner() {
+            return inner;
+        }
+    }
+
+    public static class Inner {
+        private final int count;
+
+        Inner(int count) {
+            this.count = count;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+}
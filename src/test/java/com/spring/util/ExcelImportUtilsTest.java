@@ -0,0 +1,99 @@
+package com.spring.util;
+
+import com.spring.annotation.Excel;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 流式导入-合并行的值沿用
+ *
+ * @author Zhendong Zhou
+ */
+class ExcelImportUtilsTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void mergedRowsCarryValue() throws IOException {
+        File file = dir.resolve("import.xlsx").toFile();
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); OutputStream out = new FileOutputStream(file)) {
+            Sheet sheet = workbook.createSheet("Sheet1");
+            row(sheet, 0, "编码", "分组", "数量");
+            row(sheet, 1, "A1", "g1", 1);
+            row(sheet, 2, "A2", null, 2);
+            row(sheet, 3, "A3", null, 3);
+            row(sheet, 4, "B1", "g2", 4);
+            row(sheet, 5, "B2", null, null);
+            sheet.addMergedRegion(new CellRangeAddress(1, 3, 1, 1));
+            sheet.addMergedRegion(new CellRangeAddress(4, 5, 1, 1));
+            // 合并区域不跨工作表
+            Sheet next = workbook.createSheet("Sheet2");
+            row(next, 0, "编码", "分组", "数量");
+            row(next, 1, "C1", null, 5);
+            workbook.write(out);
+        }
+
+        List<Item> items = new ArrayList<>();
+        List<Long> progress = new ArrayList<>();
+        long rows = new ExcelImportUtils<>(Item.class, 2).read(file, items::addAll, (read, total) -> progress.add(read));
+
+        assertEquals(6, rows);
+        assertEquals(Arrays.asList("A1", "A2", "A3", "B1", "B2", "C1"), codes(items));
+        assertEquals(Arrays.asList("g1", "g1", "g1", "g2", "g2", null), groups(items));
+        assertEquals(Integer.valueOf(3), items.get(2).count);
+        // 非合并列不沿用上一行的值
+        assertEquals(Integer.valueOf(4), items.get(3).count);
+        assertNull(items.get(4).count);
+        assertEquals(Arrays.asList(0L, 2L, 4L, 6L), progress);
+    }
+
+    private static void row(Sheet sheet, int index, String code, String group, Object count) {
+        Row row = sheet.createRow(index);
+        row.createCell(0).setCellValue(code);
+        if (group != null) {
+            row.createCell(1).setCellValue(group);
+        }
+        if (count instanceof String) {
+            row.createCell(2).setCellValue((String) count);
+        } else if (count != null) {
+            row.createCell(2).setCellValue(((Number) count).doubleValue());
+        }
+    }
+
+    private static List<String> codes(List<Item> items) {
+        List<String> codes = new ArrayList<>();
+        items.forEach(item -> codes.add(item.code));
+        return codes;
+    }
+
+    private static List<String> groups(List<Item> items) {
+        List<String> groups = new ArrayList<>();
+        items.forEach(item -> groups.add(item.group));
+        return groups;
+    }
+
+    static class Item {
+        @Excel(name = "编码")
+        String code;
+        @Excel(name = "分组", mergeRow = true)
+        String group;
+        @Excel(name = "数量")
+        Integer count;
+    }
+}
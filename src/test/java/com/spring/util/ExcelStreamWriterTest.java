@@ -0,0 +1,112 @@
+package com.spring.util;
+
+import com.spring.annotation.Excel;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.usermodel.XSSFCell;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 流式xlsx写入-写出后由POI读回校验
+ *
+ * @author Zhendong Zhou
+ */
+class ExcelStreamWriterTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTrip() throws Exception {
+        ExcelStreamWriter writer = new ExcelStreamWriter(ExcelExportPlan.of(Row.class), dir + File.separator, "test");
+        ExportWriter.SheetWriter first = writer.createSheet("Sheet1");
+        first.append(writer.prepare(Arrays.asList(
+                new Row("A", "g1", Double.NaN, "a\u0001<b>&\"c\""),
+                new Row("A", "g1", Double.POSITIVE_INFINITY, "😀"),
+                new Row("B", "g2", 1.5, "x\uD800y￾z"))));
+        first.close();
+        ExportWriter.SheetWriter second = writer.createSheet("Sheet2");
+        second.append(writer.prepare(Arrays.asList(new Row("C", "g3", Double.NEGATIVE_INFINITY, "tab\there"))));
+        second.close();
+        String fileName = writer.make();
+
+        File file = dir.resolve(fileName).toFile();
+        assertTrue(file.exists());
+        assertFalse(dir.resolve(fileName + ".part").toFile().exists());
+        try (XSSFWorkbook workbook = new XSSFWorkbook(file)) {
+            assertEquals(2, workbook.getNumberOfSheets());
+            XSSFSheet sheet = workbook.getSheet("Sheet1");
+            assertEquals("编码", sheet.getRow(0).getCell(0).getStringCellValue());
+            assertEquals("文本", sheet.getRow(0).getCell(3).getStringCellValue());
+
+            // 合并列:同一基准值的行合并,被覆盖的单元格不写入
+            List<CellRangeAddress> merged = sheet.getMergedRegions();
+            assertEquals(1, merged.size());
+            assertEquals("B2:B3", merged.get(0).formatAsString());
+            assertEquals("g1", sheet.getRow(1).getCell(1).getStringCellValue());
+            assertNull(sheet.getRow(2).getCell(1));
+            assertEquals("g2", sheet.getRow(3).getCell(1).getStringCellValue());
+
+            // NaN与无穷大按文本输出
+            assertText("NaN", sheet.getRow(1).getCell(2));
+            assertText("Infinity", sheet.getRow(2).getCell(2));
+            assertEquals(CellType.NUMERIC, sheet.getRow(3).getCell(2).getCellTypeEnum());
+            assertEquals(1.5, sheet.getRow(3).getCell(2).getNumericCellValue());
+
+            // 去除XML不允许的字符,保留成对的代理字符
+            assertEquals("a<b>&\"c\"", sheet.getRow(1).getCell(3).getStringCellValue());
+            assertEquals("😀", sheet.getRow(2).getCell(3).getStringCellValue());
+            assertEquals("xyz", sheet.getRow(3).getCell(3).getStringCellValue());
+
+            XSSFSheet next = workbook.getSheet("Sheet2");
+            assertEquals(1, next.getLastRowNum());
+            assertText("-Infinity", next.getRow(1).getCell(2));
+            assertEquals("tab\there", next.getRow(1).getCell(3).getStringCellValue());
+        }
+    }
+
+    @Test
+    void emptyExport() throws Exception {
+        ExcelStreamWriter writer = new ExcelStreamWriter(ExcelExportPlan.of(Row.class), dir + File.separator, "empty");
+        String fileName = writer.make();
+        try (XSSFWorkbook workbook = new XSSFWorkbook(dir.resolve(fileName).toFile())) {
+            assertEquals(1, workbook.getNumberOfSheets());
+            assertEquals(0, workbook.getSheetAt(0).getLastRowNum());
+        }
+    }
+
+    private static void assertText(String expected, XSSFCell cell) {
+        assertEquals(CellType.STRING, cell.getCellTypeEnum());
+        assertEquals(expected, cell.getStringCellValue());
+    }
+
+    static class Row {
+        @Excel(name = "编码", datum = true)
+        String code;
+        @Excel(name = "分组", mergeRow = true)
+        String group;
+        @Excel(name = "数值", cellType = CellType.NUMERIC)
+        double value;
+        @Excel(name = "文本")
+        String text;
+
+        Row(String code, String group, double value, String text) {
+            this.code = code;
+            this.group = group;
+            this.value = value;
+            this.text = text;
+        }
+    }
+}